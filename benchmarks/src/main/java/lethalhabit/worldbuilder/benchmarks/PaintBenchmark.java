@@ -0,0 +1,90 @@
+package lethalhabit.worldbuilder.benchmarks;
+
+import lethalhabit.worldbuilder.FramePainter;
+import lethalhabit.worldbuilder.Tileset;
+import lethalhabit.worldbuilder.Viewport;
+import lethalhabit.worldbuilder.WorldStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One frame of the editor at full HD, painted onto an offscreen image. A panning camera moves by the maximum camera
+ * speed every frame, so chunks keep coming into view, a still one only repaints what is cached already.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class PaintBenchmark {
+    
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int PAN_PIXELS = 20;
+    
+    @Param({"10000", "1000000", "10000000"})
+    public int tiles;
+    
+    @Param({"10", "50", "100"})
+    public int tileSize;
+    
+    @Param({"false", "true"})
+    public boolean panning;
+    
+    private WorldStore world;
+    private Tileset tileset;
+    private Rectangle bounds;
+    private BufferedImage image;
+    private Graphics2D graphics;
+    private FramePainter painter;
+    private int cameraX, cameraY;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        Tileset original = Tileset.load();
+        world = SyntheticWorlds.generate(tiles, original);
+        tileset = original.scaled(tileSize);
+        bounds = world.getBounds();
+        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        graphics = image.createGraphics();
+        painter = new FramePainter();
+        cameraX = (int) bounds.getCenterX() * tileSize;
+        cameraY = (int) bounds.getCenterY() * tileSize;
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        graphics.dispose();
+    }
+    
+    @Benchmark
+    public BufferedImage paintFrame() {
+        if (panning) {
+            // back to the left edge of the world once the right edge is reached
+            cameraX = bounds.x * tileSize + (cameraX + PAN_PIXELS - bounds.x * tileSize) % (bounds.width * tileSize);
+        }
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, WIDTH, HEIGHT);
+        painter.paint(graphics, new FramePainter.Frame(new Viewport(cameraX, cameraY, tileSize, WIDTH, HEIGHT), world, tileset));
+        return image;
+    }
+    
+}
@@ -0,0 +1,69 @@
+package lethalhabit.worldbuilder.benchmarks;
+
+import lethalhabit.worldbuilder.AutoShaper;
+import lethalhabit.worldbuilder.Tileset;
+import lethalhabit.worldbuilder.WorldBuilder;
+import lethalhabit.worldbuilder.WorldStore;
+
+import java.util.Random;
+
+/**
+ * Generates reproducible worlds of a given size for the benchmarks. The tiles fill a square from the top down, like
+ * terrain with caves in it: a noisy surface, pockets of liquid and holes, and blocks of several groups that are
+ * auto-shaped afterwards, so the shapes vary as much as in a built world.
+ */
+public final class SyntheticWorlds {
+    
+    public static final long SEED = 0x4C48L;
+    
+    /**
+     * Share of the cells below the surface that are left empty
+     */
+    private static final double CAVE_RATIO = 0.15;
+    
+    /**
+     * Share of the empty cells below the surface that are filled with liquid instead
+     */
+    private static final double LIQUID_RATIO = 0.3;
+    
+    private SyntheticWorlds() {
+    }
+    
+    /**
+     * @return a world with exactly the given number of occupied cells
+     */
+    public static WorldStore generate(int tiles, Tileset tileset) {
+        Random random = new Random(SEED);
+        int width = (int) Math.ceil(Math.sqrt(tiles / (1 - CAVE_RATIO)));
+        int groups = Math.max(1, tileset.blocks().size() / WorldBuilder.TILE_GROUP_SIZE);
+        int liquidGroups = Math.max(1, tileset.liquids().size() / WorldBuilder.LIQUID_GROUP_SIZE);
+        int[] surface = new int[width];
+        for (int x = 0, height = 8; x < width; x++) {
+            height = Math.max(0, Math.min(16, height + random.nextInt(3) - 1));
+            surface[x] = height;
+        }
+        WorldStore world = new WorldStore();
+        int placed = 0;
+        for (int y = 0; placed < tiles; y++) {
+            for (int x = 0; x < width && placed < tiles; x++) {
+                if (y < surface[x]) {
+                    continue;
+                }
+                double roll = random.nextDouble();
+                if (roll < CAVE_RATIO * LIQUID_RATIO) {
+                    world.setTile(x, y, -1, random.nextInt(liquidGroups) * WorldBuilder.LIQUID_GROUP_SIZE, -1);
+                } else if (roll < CAVE_RATIO) {
+                    continue;
+                } else {
+                    // groups change in layers, so most neighbours belong to the same group
+                    int group = (y / 32 + (random.nextInt(8) == 0 ? 1 : 0)) % groups;
+                    world.setTile(x, y, group * WorldBuilder.TILE_GROUP_SIZE, -1, -1);
+                }
+                placed++;
+            }
+        }
+        AutoShaper.shapeWorld(world);
+        return world;
+    }
+    
+}
@@ -0,0 +1,88 @@
+package lethalhabit.worldbuilder.benchmarks;
+
+import lethalhabit.worldbuilder.MinimapRenderer;
+import lethalhabit.worldbuilder.Tileset;
+import lethalhabit.worldbuilder.Util;
+import lethalhabit.worldbuilder.WorldBuilder;
+import lethalhabit.worldbuilder.WorldStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations on a world in memory: snapshots, reshaping single cells and minimaps
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class WorldBenchmark {
+    
+    /**
+     * Cells reshaped per invocation of {@link #autoShapeChunk()}
+     */
+    private static final int SHAPED_CELLS = 1024;
+    
+    @Param({"10000", "1000000", "10000000"})
+    public int tiles;
+    
+    private Tileset tileset;
+    private WorldStore world;
+    private int minimapTileSize;
+    private final int[] cellsX = new int[SHAPED_CELLS];
+    private final int[] cellsY = new int[SHAPED_CELLS];
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        tileset = Tileset.load();
+        world = SyntheticWorlds.generate(tiles, tileset);
+        WorldBuilder.INSTANCE.setWorldData(world);
+        Rectangle bounds = world.getBounds();
+        // the size the editor renders minimaps at on a full HD screen
+        minimapTileSize = MinimapRenderer.tilePixelSize(bounds, (int) (1920 * 0.9), (int) (1080 * 0.8));
+        Random random = new Random(SyntheticWorlds.SEED);
+        for (int i = 0; i < SHAPED_CELLS; i++) {
+            cellsX[i] = bounds.x + random.nextInt(bounds.width);
+            cellsY[i] = bounds.y + random.nextInt(bounds.height);
+        }
+    }
+    
+    @Benchmark
+    public WorldStore copyWorldData() {
+        return Util.copyWorldData(world);
+    }
+    
+    /**
+     * Reshapes the neighbourhood of one cell, as after every edit in the editor
+     */
+    @Benchmark
+    @OperationsPerInvocation(SHAPED_CELLS)
+    public void autoShapeChunk() {
+        for (int i = 0; i < SHAPED_CELLS; i++) {
+            WorldBuilder.INSTANCE.autoShapeChunk(cellsX[i], cellsY[i], false);
+        }
+    }
+    
+    @Benchmark
+    public BufferedImage generateMinimap() {
+        return new MinimapRenderer(tileset).render(Util.copyWorldData(world), minimapTileSize, null);
+    }
+    
+}
@@ -0,0 +1,92 @@
+package lethalhabit.worldbuilder.benchmarks;
+
+import lethalhabit.worldbuilder.Tileset;
+import lethalhabit.worldbuilder.Util;
+import lethalhabit.worldbuilder.WorldBuilder;
+import lethalhabit.worldbuilder.WorldFormat;
+import lethalhabit.worldbuilder.WorldStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Loading and saving whole worlds in every single-file format
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class WorldIoBenchmark {
+    
+    @Param({"10000", "1000000", "10000000"})
+    public int tiles;
+    
+    @Param({"lhw", "json"})
+    public String format;
+    
+    private Path directory;
+    private File worldFile;
+    
+    /**
+     * Saves alternate between two files, so that none of them is a cheap incremental save to the file saved last
+     */
+    private File[] saveTargets;
+    private int saves = 0;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        WorldStore world = SyntheticWorlds.generate(tiles, Tileset.load());
+        WorldFormat worldFormat = WorldFormat.forFileName("world." + format);
+        directory = Files.createTempDirectory("worldbuilder-benchmark");
+        worldFile = directory.resolve("world" + worldFormat.extension).toFile();
+        worldFormat.write(world, worldFile.toPath());
+        saveTargets = new File[] {
+                directory.resolve("saved0" + worldFormat.extension).toFile(),
+                directory.resolve("saved1" + worldFormat.extension).toFile()
+        };
+        WorldBuilder.INSTANCE.setWorldData(world);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+    
+    @Benchmark
+    public WorldStore readWorldData() {
+        return Util.readWorldData(worldFile);
+    }
+    
+    /**
+     * Takes the snapshot and writes it, until the file is complete
+     */
+    @Benchmark
+    public void saveWorldData() throws Exception {
+        WorldBuilder.INSTANCE.saveWorldData(saveTargets[saves++ % saveTargets.length]).get();
+    }
+    
+}
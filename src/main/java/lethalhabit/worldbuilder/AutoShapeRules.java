@@ -0,0 +1,190 @@
+package lethalhabit.worldbuilder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Autoshape rules of one layer of a tileset, compiled into a table of variant offsets indexed by the mask of
+ * occupied neighbours.
+ * <p>
+ * Rule files consist of a header and a list of rules, lines starting with {@code #} are comments:
+ * <pre>
+ * group 16        variants per group
+ * neighbours 8    4 to only look at direct neighbours, 8 to include the corners
+ *
+ * 5               offset of the variant within its group
+ * ?#?             neighbourhood the variant is used for,
+ * .?#             '#' occupied, '.' empty, '?' either, the centre is ignored
+ * ?#?
+ * </pre>
+ * The first matching rule wins and every neighbourhood has to be matched by some rule.
+ * With 8 neighbours, corners only count if both edges next to them are occupied, so a 47 variant blob tileset is
+ * described by one rule per variant.
+ */
+public final class AutoShapeRules {
+    
+    public static final int NORTH = 1, SOUTH = 1 << 1, WEST = 1 << 2, EAST = 1 << 3;
+    public static final int NORTH_WEST = 1 << 4, NORTH_EAST = 1 << 5, SOUTH_WEST = 1 << 6, SOUTH_EAST = 1 << 7;
+    
+    private static final int EDGES = NORTH | SOUTH | WEST | EAST;
+    
+    /**
+     * Neighbour bit of every cell of a pattern, row by row, the centre has none
+     */
+    private static final int[] PATTERN_BITS = {NORTH_WEST, NORTH, NORTH_EAST, WEST, 0, EAST, SOUTH_WEST, SOUTH, SOUTH_EAST};
+    
+    private final int groupSize;
+    private final boolean corners;
+    private final byte[] offsets;
+    
+    private AutoShapeRules(int groupSize, boolean corners, byte[] offsets) {
+        this.groupSize = groupSize;
+        this.corners = corners;
+        this.offsets = offsets;
+    }
+    
+    /**
+     * Loads and compiles a rule file from the classpath
+     */
+    public static AutoShapeRules load(String resource) {
+        InputStream stream = AutoShapeRules.class.getResourceAsStream(resource);
+        if (stream == null) {
+            throw new IllegalStateException("Missing autoshape rules " + resource);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            return parse(reader.lines().toList(), resource);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+    
+    /**
+     * Compiles the lines of a rule file
+     *
+     * @param name used in error messages
+     * @throws IllegalArgumentException if the rules are malformed or do not cover every neighbourhood
+     */
+    public static AutoShapeRules parse(List<String> lines, String name) {
+        int groupSize = -1, neighbours = 4;
+        List<int[]> rules = new ArrayList<>(); // {offset, bits that must match, their values}
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] words = line.split("\\s+");
+            try {
+                if (words[0].equals("group") && words.length == 2) {
+                    groupSize = Integer.parseInt(words[1]);
+                } else if (words[0].equals("neighbours") && words.length == 2) {
+                    neighbours = Integer.parseInt(words[1]);
+                    if (neighbours != 4 && neighbours != 8) {
+                        throw new IllegalArgumentException(name + ":" + (i + 1) + ": neighbours must be 4 or 8");
+                    }
+                } else if (words.length == 1) {
+                    if (i + 3 >= lines.size()) {
+                        throw new IllegalArgumentException(name + ":" + (i + 1) + ": incomplete rule");
+                    }
+                    int offset = Integer.parseInt(words[0]);
+                    int care = 0, value = 0;
+                    for (int row = 0; row < 3; row++) {
+                        String pattern = lines.get(i + 1 + row).strip();
+                        if (pattern.length() != 3) {
+                            throw new IllegalArgumentException(name + ":" + (i + 2 + row) + ": patterns are 3 characters wide");
+                        }
+                        for (int column = 0; column < 3; column++) {
+                            int bit = PATTERN_BITS[row * 3 + column];
+                            switch (pattern.charAt(column)) {
+                                case '#' -> {
+                                    care |= bit;
+                                    value |= bit;
+                                }
+                                case '.' -> care |= bit;
+                                case '?' -> { }
+                                default -> throw new IllegalArgumentException(name + ":" + (i + 2 + row) + ": unknown pattern character " + pattern.charAt(column));
+                            }
+                        }
+                    }
+                    rules.add(new int[] {offset, care, value});
+                    i += 3;
+                } else {
+                    throw new IllegalArgumentException(name + ":" + (i + 1) + ": unknown line " + line);
+                }
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException(name + ":" + (i + 1) + ": " + ex.getMessage(), ex);
+            }
+        }
+        if (groupSize <= 0 || groupSize > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException(name + ": missing or invalid group size");
+        }
+        boolean corners = neighbours == 8;
+        byte[] offsets = new byte[256];
+        for (int mask = 0; mask < offsets.length; mask++) {
+            int reduced = reduce(mask, corners);
+            int offset = -1;
+            for (int[] rule : rules) {
+                if ((reduced & rule[1]) == rule[2]) {
+                    offset = rule[0];
+                    break;
+                }
+            }
+            if (offset < 0 || offset >= groupSize) {
+                throw new IllegalArgumentException(name + ": no valid rule for neighbourhood " + Integer.toBinaryString(reduced));
+            }
+            offsets[mask] = (byte) offset;
+        }
+        return new AutoShapeRules(groupSize, corners, offsets);
+    }
+    
+    /**
+     * Drops the corners if they are not used, or if one of the edges next to them is empty
+     */
+    private static int reduce(int mask, boolean corners) {
+        if (!corners) {
+            return mask & EDGES;
+        }
+        int reduced = mask & EDGES;
+        reduced |= corner(mask, NORTH | WEST, NORTH_WEST);
+        reduced |= corner(mask, NORTH | EAST, NORTH_EAST);
+        reduced |= corner(mask, SOUTH | WEST, SOUTH_WEST);
+        reduced |= corner(mask, SOUTH | EAST, SOUTH_EAST);
+        return reduced;
+    }
+    
+    private static int corner(int mask, int edges, int corner) {
+        return (mask & edges) == edges ? mask & corner : 0;
+    }
+    
+    /**
+     * Builds the neighbour mask from the layer values around a cell, negative values are empty
+     */
+    public static int mask(int north, int south, int west, int east, int northWest, int northEast, int southWest, int southEast) {
+        return (~north >>> 31) | (~south >>> 31) << 1 | (~west >>> 31) << 2 | (~east >>> 31) << 3
+                | (~northWest >>> 31) << 4 | (~northEast >>> 31) << 5 | (~southWest >>> 31) << 6 | (~southEast >>> 31) << 7;
+    }
+    
+    /**
+     * @return the shaped variant of the given tile index for the given neighbour mask
+     */
+    public int shape(int index, int mask) {
+        return index - index % groupSize + offsets[mask];
+    }
+    
+    public int getGroupSize() {
+        return groupSize;
+    }
+    
+    /**
+     * @return whether the diagonal neighbours affect the shape
+     */
+    public boolean usesCorners() {
+        return corners;
+    }
+    
+}
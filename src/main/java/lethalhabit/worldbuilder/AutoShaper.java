@@ -0,0 +1,225 @@
+package lethalhabit.worldbuilder;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Picks the variant of a block or liquid that matches its surroundings, as defined by the {@link AutoShapeRules}
+ * bundled with the tileset.
+ */
+public final class AutoShaper {
+    
+    public static final AutoShapeRules BLOCK_RULES = AutoShapeRules.load("/tiles/autoshape.rules");
+    public static final AutoShapeRules LIQUID_RULES = AutoShapeRules.load("/liquids/autoshape.rules");
+    
+    /**
+     * Side length of the neighbourhood of a chunk, the chunk itself plus a border of one cell
+     */
+    private static final int PADDED_SIZE = Chunk.SIZE + 2;
+    
+    private AutoShaper() {
+    }
+    
+    /**
+     * Reshapes a single tile
+     *
+     * @return whether the tile changed
+     */
+    public static boolean shapeTile(WorldStore world, int x, int y) {
+        int block = world.getBlock(x, y);
+        int liquid = world.getLiquid(x, y);
+        if (block < 0 && liquid < 0) {
+            return false;
+        }
+        if (block >= 0) {
+            block = BLOCK_RULES.shape(block, AutoShapeRules.mask(
+                    world.getBlock(x, y - 1), world.getBlock(x, y + 1), world.getBlock(x - 1, y), world.getBlock(x + 1, y),
+                    world.getBlock(x - 1, y - 1), world.getBlock(x + 1, y - 1), world.getBlock(x - 1, y + 1), world.getBlock(x + 1, y + 1)));
+        }
+        if (liquid >= 0) {
+            liquid = LIQUID_RULES.shape(liquid, AutoShapeRules.mask(
+                    world.getLiquid(x, y - 1), world.getLiquid(x, y + 1), world.getLiquid(x - 1, y), world.getLiquid(x + 1, y),
+                    world.getLiquid(x - 1, y - 1), world.getLiquid(x + 1, y - 1), world.getLiquid(x - 1, y + 1), world.getLiquid(x + 1, y + 1)));
+        }
+        return world.setTile(x, y, block, liquid, world.getInteractable(x, y));
+    }
+    
+    /**
+     * Reshapes a tile and the 3x3 neighbourhood around it, the only tiles whose shape an edit of the tile can affect
+     */
+    public static void shapeNeighbourhood(WorldStore world, int x, int y) {
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                shapeTile(world, x + dx, y + dy);
+            }
+        }
+    }
+    
+    /**
+     * Reshapes every tile of the world
+     *
+     * @return the number of tiles that changed
+     * @see #shapeArea
+     */
+    public static int shapeWorld(WorldStore world) {
+        Rectangle bounds = world.getBounds();
+        return bounds == null ? 0 : shapeArea(world, bounds);
+    }
+    
+    /**
+     * Reshapes every tile inside the given area.
+     * The shape of a tile only depends on which of its neighbours are occupied, which reshaping never changes. So the
+     * new shapes are computed chunk by chunk in parallel from the unmodified world, reading across chunk borders where
+     * needed, and only then written back one tile at a time, so that change listeners see every change.
+     * Paged worlds are processed in batches small enough that a batch and its neighbours stay in memory.
+     *
+     * @return the number of tiles that changed
+     */
+    public static int shapeArea(WorldStore world, Rectangle area) {
+        EditorEvents.AutoShapeEvent event = new EditorEvents.AutoShapeEvent();
+        event.begin();
+        List<Long> keys = chunkKeys(world, area);
+        int batchSize = world.isPaged() ? Math.max(1, world.getResidentLimit() / 16) : Math.max(1, keys.size());
+        int changed = 0;
+        for (int from = 0; from < keys.size(); from += batchSize) {
+            changed += shapeChunks(world, keys.subList(from, Math.min(keys.size(), from + batchSize)), area);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.cells = (long) area.width * area.height;
+            event.changed = changed;
+            event.commit();
+        }
+        return changed;
+    }
+    
+    /**
+     * @return the keys of the chunks that may intersect the area, row by row
+     */
+    private static List<Long> chunkKeys(WorldStore world, Rectangle area) {
+        int minX = area.x >> Chunk.SHIFT, maxX = (area.x + area.width - 1) >> Chunk.SHIFT;
+        int minY = area.y >> Chunk.SHIFT, maxY = (area.y + area.height - 1) >> Chunk.SHIFT;
+        // listing every chunk of a paged world reads all of its region files, only worth it for large areas
+        long chunkCount = world.isPaged() ? world.getResidentLimit() : world.getResidentChunkCount();
+        List<Long> keys = new ArrayList<>();
+        if ((long) (maxX - minX + 1) * (maxY - minY + 1) > chunkCount) {
+            // more positions than chunks, e.g. a few tiles far apart, most positions are empty
+            for (long key : world.getChunkKeys()) {
+                if (Chunk.keyX(key) >= minX && Chunk.keyX(key) <= maxX && Chunk.keyY(key) >= minY && Chunk.keyY(key) <= maxY) {
+                    keys.add(key);
+                }
+            }
+            keys.sort(Comparator.comparingInt(Chunk::keyY).thenComparingInt(Chunk::keyX));
+        } else {
+            for (int chunkY = minY; chunkY <= maxY; chunkY++) {
+                for (int chunkX = minX; chunkX <= maxX; chunkX++) {
+                    keys.add(Chunk.key(chunkX, chunkY));
+                }
+            }
+        }
+        return keys;
+    }
+    
+    private static int shapeChunks(WorldStore world, List<Long> keys, Rectangle area) {
+        List<Chunk> chunks = new ArrayList<>();
+        for (long key : keys) {
+            Chunk chunk = world.getChunk(Chunk.keyX(key), Chunk.keyY(key));
+            if (chunk != null) {
+                chunks.add(chunk);
+            }
+        }
+        if (world.isPaged()) {
+            // the neighbours are read with peekChunk, which does not page them in
+            for (Chunk chunk : chunks) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        world.getChunk(chunk.x + dx, chunk.y + dy);
+                    }
+                }
+            }
+        }
+        List<Shape> shapes = chunks.parallelStream()
+                .map(chunk -> computeShape(world, chunk, area))
+                .filter(Objects::nonNull)
+                .toList();
+        int changed = 0;
+        for (Shape shape : shapes) {
+            Chunk chunk = shape.chunk;
+            for (int index = 0; index < Chunk.AREA; index++) {
+                if (shape.blocks[index] != chunk.getBlock(index) || shape.liquids[index] != chunk.getLiquid(index)) {
+                    world.setTile(chunk.originX() + (index & Chunk.MASK), chunk.originY() + (index >> Chunk.SHIFT), shape.blocks[index], shape.liquids[index], chunk.getInteractable(index));
+                    changed++;
+                }
+            }
+        }
+        return changed;
+    }
+    
+    /**
+     * @return the reshaped blocks and liquids of the chunk, or {@code null} if nothing changes
+     */
+    private static Shape computeShape(WorldStore world, Chunk chunk, Rectangle area) {
+        short[] paddedBlocks = new short[PADDED_SIZE * PADDED_SIZE];
+        short[] paddedLiquids = new short[PADDED_SIZE * PADDED_SIZE];
+        pad(world, chunk, paddedBlocks, paddedLiquids);
+        int fromX = Math.max(0, area.x - chunk.originX()), toX = Math.min(Chunk.SIZE, area.x + area.width - chunk.originX());
+        int fromY = Math.max(0, area.y - chunk.originY()), toY = Math.min(Chunk.SIZE, area.y + area.height - chunk.originY());
+        short[] blocks = null, liquids = null;
+        for (int y = fromY; y < toY; y++) {
+            for (int x = fromX; x < toX; x++) {
+                int index = Chunk.index(x, y);
+                int padded = (y + 1) * PADDED_SIZE + x + 1;
+                int block = chunk.blocks[index], liquid = chunk.liquids[index];
+                if (block >= 0) {
+                    block = BLOCK_RULES.shape(block, mask(paddedBlocks, padded));
+                }
+                if (liquid >= 0) {
+                    liquid = LIQUID_RULES.shape(liquid, mask(paddedLiquids, padded));
+                }
+                if (block != chunk.blocks[index] || liquid != chunk.liquids[index]) {
+                    if (blocks == null) {
+                        blocks = chunk.blocks.clone();
+                        liquids = chunk.liquids.clone();
+                    }
+                    blocks[index] = (short) block;
+                    liquids[index] = (short) liquid;
+                }
+            }
+        }
+        return blocks == null ? null : new Shape(chunk, blocks, liquids);
+    }
+    
+    private static int mask(short[] padded, int index) {
+        return AutoShapeRules.mask(padded[index - PADDED_SIZE], padded[index + PADDED_SIZE], padded[index - 1], padded[index + 1],
+                padded[index - PADDED_SIZE - 1], padded[index - PADDED_SIZE + 1], padded[index + PADDED_SIZE - 1], padded[index + PADDED_SIZE + 1]);
+    }
+    
+    /**
+     * Copies the blocks and liquids of the chunk and the cells bordering it into arrays with one extra cell on every
+     * side, so that every neighbour of a cell of the chunk can be read without any bounds checks
+     */
+    private static void pad(WorldStore world, Chunk chunk, short[] blocks, short[] liquids) {
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                Chunk source = dx == 0 && dy == 0 ? chunk : world.peekChunk(chunk.x + dx, chunk.y + dy);
+                // range of the padded array covered by this chunk
+                int fromX = dx < 0 ? 0 : dx == 0 ? 1 : PADDED_SIZE - 1, toX = dx < 0 ? 1 : dx == 0 ? PADDED_SIZE - 1 : PADDED_SIZE;
+                int fromY = dy < 0 ? 0 : dy == 0 ? 1 : PADDED_SIZE - 1, toY = dy < 0 ? 1 : dy == 0 ? PADDED_SIZE - 1 : PADDED_SIZE;
+                for (int y = fromY; y < toY; y++) {
+                    for (int x = fromX; x < toX; x++) {
+                        int index = Chunk.index((x - 1) & Chunk.MASK, (y - 1) & Chunk.MASK);
+                        blocks[y * PADDED_SIZE + x] = source == null ? -1 : source.blocks[index];
+                        liquids[y * PADDED_SIZE + x] = source == null ? -1 : source.liquids[index];
+                    }
+                }
+            }
+        }
+    }
+    
+    private record Shape(Chunk chunk, short[] blocks, short[] liquids) {
+    }
+    
+}
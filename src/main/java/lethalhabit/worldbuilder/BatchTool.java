@@ -0,0 +1,441 @@
+package lethalhabit.worldbuilder;
+
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Processes world files from the command line, without opening any window.
+ * Every command that takes worlds also accepts directories, all world files directly inside of them are processed.
+ * Files are processed in parallel and the time taken for each of them is reported. Worlds and minimaps are written to
+ * a temporary file first that replaces the output once it is complete, so a failed job never leaves a half written
+ * file behind.
+ * Region worlds that are written to another file are left untouched, chunks changed while they are processed are
+ * paged out to a scratch world instead of their region files.
+ * Run with {@code -Djava.awt.headless=true} on machines without a display.
+ * <pre>
+ * convert   &lt;json|lhw|lhwr&gt; &lt;world&gt;... [--out &lt;dir&gt;]       convert worlds to another format
+ * merge     &lt;target&gt; &lt;source&gt; &lt;x&gt; &lt;y&gt; [--out &lt;file&gt;]   merge a world into another at an offset
+ * autoshape &lt;world&gt;... [--out &lt;dir&gt;]                       reshape every tile to match its neighbours
+ * validate  &lt;world&gt;...                                     check that worlds load and only use existing tiles
+ * minimap   &lt;world&gt;... [--tile-size &lt;px&gt;] [--out &lt;dir&gt;]    render minimaps as PNG
+ * benchmark &lt;world&gt;                                        save and load a world in every format
+ *
+ * --threads &lt;n&gt;   number of files processed at once, defaults to the number of processors
+ * </pre>
+ */
+public final class BatchTool {
+    
+    /**
+     * Minimaps are scaled to fit into a square of this size unless a tile size is given
+     */
+    public static final int DEFAULT_MINIMAP_SIZE = 4096;
+    
+    private static final String USAGE = """
+            Usage: WorldBuilder <command> [arguments] [--threads <n>]
+              convert   <json|lhw|lhwr> <world>... [--out <dir>]
+              merge     <target> <source> <x> <y> [--out <file>]
+              autoshape <world>... [--out <dir>]
+              validate  <world>...
+              minimap   <world>... [--tile-size <px>] [--out <dir>]
+              benchmark <world>""";
+    
+    private static Tileset tileset;
+    
+    private final List<String> arguments = new ArrayList<>();
+    private final Map<String, String> options = new HashMap<>();
+    
+    private BatchTool(String[] args) {
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("--") && i + 1 < args.length) {
+                options.put(args[i].substring(2), args[++i]);
+            } else {
+                arguments.add(args[i]);
+            }
+        }
+    }
+    
+    /**
+     * @return the exit code, 0 if every file was processed successfully
+     */
+    public static int run(String[] args) {
+        try {
+            BatchTool tool = new BatchTool(args);
+            return switch (args[0]) {
+                case "convert" -> tool.convert();
+                case "merge" -> tool.merge();
+                case "autoshape" -> tool.autoShape();
+                case "validate" -> tool.validate();
+                case "minimap" -> tool.minimap();
+                case "benchmark" -> tool.benchmark();
+                default -> usage();
+            };
+        } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+            return usage();
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+            return 1;
+        }
+    }
+    
+    private static int usage() {
+        System.err.println(USAGE);
+        return 2;
+    }
+    
+    private int convert() throws IOException {
+        WorldFormat format = switch (arguments.get(0)) {
+            case "json" -> WorldFormat.JSON;
+            case "lhw", "binary" -> WorldFormat.BINARY;
+            case "lhwr", "region" -> WorldFormat.REGION;
+            default -> throw new IllegalArgumentException(arguments.get(0));
+        };
+        List<Path> files = worlds(arguments.subList(1, arguments.size()));
+        Map<Path, Path> targets = new HashMap<>();
+        for (Path file : files) {
+            targets.put(file, outputFile(file, format.extension));
+        }
+        checkOutputs(targets);
+        return forEachWorld(files, file -> {
+            Path target = targets.get(file);
+            WorldStore world = WorldFormat.readDetected(file);
+            try {
+                WorldSaver.write(world, target);
+            } finally {
+                close(world);
+            }
+            return "-> " + target;
+        });
+    }
+    
+    private int merge() throws IOException {
+        if (arguments.size() != 4) {
+            return usage();
+        }
+        Path target = Path.of(arguments.get(0));
+        Path source = Path.of(arguments.get(1));
+        int offsetX = Integer.parseInt(arguments.get(2));
+        int offsetY = Integer.parseInt(arguments.get(3));
+        Path output = options.containsKey("out") ? Path.of(options.get("out")) : target;
+        return forEachWorld(List.of(target), file -> {
+            WorldStore world = read(file, output);
+            try {
+                WorldStore other = WorldFormat.readDetected(source);
+                try {
+                    world.merge(other, offsetX, offsetY);
+                    WorldSaver.write(world, output);
+                    return other.getTileCount() + " tiles merged -> " + output;
+                } finally {
+                    close(other);
+                }
+            } finally {
+                close(world);
+            }
+        });
+    }
+    
+    private int autoShape() throws IOException {
+        List<Path> files = worlds(arguments);
+        Map<Path, Path> targets = new HashMap<>();
+        for (Path file : files) {
+            targets.put(file, outputFile(file, WorldFormat.detect(file).extension));
+        }
+        checkOutputs(targets);
+        return forEachWorld(files, file -> {
+            Path target = targets.get(file);
+            WorldStore world = read(file, target);
+            try {
+                int changed = AutoShaper.shapeWorld(world);
+                WorldSaver.write(world, target);
+                return changed + " of " + world.getTileCount() + " tiles reshaped -> " + target;
+            } finally {
+                close(world);
+            }
+        });
+    }
+    
+    private int validate() throws IOException {
+        Tileset tileset = tileset();
+        return forEachWorld(worlds(arguments), file -> {
+            WorldStore world = WorldFormat.readDetected(file);
+            try {
+                return validate(world, tileset);
+            } finally {
+                close(world);
+            }
+        });
+    }
+    
+    /**
+     * @return the number of tiles and the size of the world
+     * @throws IOException if the world holds tiles that are not in the tileset
+     */
+    private static String validate(WorldStore world, Tileset tileset) throws IOException {
+        int[] invalid = {0, 0, 0};
+        world.forEachTile((x, y, block, liquid, interactable) -> {
+            if (x < 0 || y < 0 || block >= tileset.blocks().size() || liquid >= tileset.liquids().size() || interactable >= tileset.interactables().size()) {
+                if (invalid[0]++ == 0) {
+                    invalid[1] = x;
+                    invalid[2] = y;
+                }
+            }
+        });
+        if (invalid[0] > 0) {
+            throw new IOException(invalid[0] + " invalid tiles, the first one at " + invalid[1] + " | " + invalid[2]);
+        }
+        Rectangle bounds = world.getBounds();
+        return world.getTileCount() + " tiles" + (bounds == null ? "" : ", " + bounds.width + "x" + bounds.height);
+    }
+    
+    private int minimap() throws IOException {
+        List<Path> files = worlds(arguments);
+        Map<Path, Path> targets = new HashMap<>();
+        for (Path file : files) {
+            targets.put(file, outputFile(file, ".png"));
+        }
+        checkOutputs(targets);
+        MinimapRenderer renderer = new MinimapRenderer(tileset());
+        return forEachWorld(files, file -> {
+            WorldStore world = WorldFormat.readDetected(file);
+            try {
+                return minimap(world, renderer, targets.get(file));
+            } finally {
+                close(world);
+            }
+        });
+    }
+    
+    /**
+     * @return the size of the minimap and where it was written to
+     */
+    private String minimap(WorldStore world, MinimapRenderer renderer, Path target) throws IOException {
+        Rectangle bounds = world.getBounds();
+        if (bounds == null) {
+            return "empty, skipped";
+        }
+        int tileSize = options.containsKey("tile-size")
+                ? Integer.parseInt(options.get("tile-size"))
+                : MinimapRenderer.tilePixelSize(bounds, DEFAULT_MINIMAP_SIZE, DEFAULT_MINIMAP_SIZE);
+        BufferedImage minimap = renderer.render(world, tileSize, null);
+        WorldSaver.replace(target, temp -> {
+            if (!ImageIO.write(minimap, "png", temp.toFile())) {
+                throw new IOException("No PNG writer available");
+            }
+        });
+        return minimap.getWidth() + "x" + minimap.getHeight() + " -> " + target;
+    }
+    
+    private int benchmark() throws IOException {
+        WorldStore world = WorldFormat.readDetected(Path.of(arguments.get(0)));
+        try {
+            benchmark(world);
+        } finally {
+            close(world);
+        }
+        return 0;
+    }
+    
+    private static void benchmark(WorldStore world) throws IOException {
+        for (WorldFormat format : WorldFormat.values()) {
+            Path file = Files.createTempFile("world", format.extension);
+            try {
+                long start = System.nanoTime();
+                format.write(world, file);
+                reportThroughput("save", format, world, fileSize(format, file), System.nanoTime() - start);
+                start = System.nanoTime();
+                WorldStore loaded = format.read(file);
+                try {
+                    // region worlds are paged in lazily, read every chunk to compare
+                    loaded.forEachChunk(chunk -> { });
+                    reportThroughput("load", format, world, fileSize(format, file), System.nanoTime() - start);
+                } finally {
+                    close(loaded);
+                }
+            } finally {
+                Files.deleteIfExists(file);
+                if (format == WorldFormat.REGION) {
+                    RegionFileBackend.delete(file);
+                }
+            }
+        }
+    }
+    
+    private static long fileSize(WorldFormat format, Path file) throws IOException {
+        return format == WorldFormat.REGION ? RegionFileBackend.size(file) : Files.size(file);
+    }
+    
+    private static void reportThroughput(String operation, WorldFormat format, WorldStore world, long bytes, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%s %-6s %,d tiles, %,d bytes in %.1f ms (%.1f MB/s, %,.0f tiles/s)%n",
+                operation, format, world.getTileCount(), bytes, nanos / 1e6, bytes / 1e6 / seconds, world.getTileCount() / seconds);
+    }
+    
+    /**
+     * Reads a world that is processed and then written to the target. Modified chunks of a region world are written
+     * back to its files whenever they are paged out, so region worlds that are written somewhere else are opened
+     * {@link CopyOnWriteBackend copy-on-write} to leave their files untouched.
+     */
+    private static WorldStore read(Path file, Path target) throws IOException {
+        if (!file.toAbsolutePath().normalize().equals(target.toAbsolutePath().normalize()) && WorldFormat.detect(file) == WorldFormat.REGION) {
+            return new WorldStore(CopyOnWriteBackend.open(file), WorldStore.configuredResidentLimit());
+        }
+        return WorldFormat.readDetected(file);
+    }
+    
+    /**
+     * Closes the backend of a paged world, unmapping its files
+     */
+    private static void close(WorldStore world) throws IOException {
+        if (world.getBackend() != null) {
+            world.getBackend().close();
+        }
+    }
+    
+    /**
+     * Runs the job for every world file on a pool of {@code --threads} threads and prints one line per file as
+     * soon as it is done, followed by a summary
+     *
+     * @return 0 if the job succeeded for every file, 1 otherwise
+     */
+    private int forEachWorld(List<Path> files, WorldJob job) throws IOException {
+        int threads = options.containsKey("threads") ? Integer.parseInt(options.get("threads")) : Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.size())));
+        ExecutorCompletionService<String> completion = new ExecutorCompletionService<>(executor);
+        long start = System.nanoTime();
+        for (Path file : files) {
+            completion.submit(() -> {
+                long fileStart = System.nanoTime();
+                try {
+                    String result = job.process(file);
+                    return String.format("ok     %9.1f ms  %s  %s", (System.nanoTime() - fileStart) / 1e6, file, result);
+                } catch (Exception ex) {
+                    return String.format("FAILED %9.1f ms  %s  %s", (System.nanoTime() - fileStart) / 1e6, file, ex);
+                }
+            });
+        }
+        int failed = 0;
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                String result = completion.take().get();
+                if (result.startsWith("FAILED")) {
+                    failed++;
+                }
+                System.out.println(result);
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new IOException("Processing was interrupted", ex);
+        } finally {
+            executor.shutdownNow();
+        }
+        System.out.printf("%d files, %d failed, %.1f ms%n", files.size(), failed, (System.nanoTime() - start) / 1e6);
+        return failed == 0 ? 0 : 1;
+    }
+    
+    /**
+     * @return the world files given as arguments, each only once, with directories replaced by the world files directly
+     * inside of them
+     */
+    private static List<Path> worlds(List<String> paths) throws IOException {
+        // a file given twice would be processed by two jobs at once
+        Set<Path> seen = new HashSet<>();
+        List<Path> files = new ArrayList<>(expand(paths));
+        files.removeIf(file -> !seen.add(file.toAbsolutePath().normalize()));
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("no world files given");
+        }
+        return files;
+    }
+    
+    /**
+     * Makes sure that no job writes a file another job reads or writes, the jobs run in parallel
+     *
+     * @param targets the output file of every input file
+     */
+    private static void checkOutputs(Map<Path, Path> targets) throws IOException {
+        Set<Path> inputs = new HashSet<>();
+        for (Path file : targets.keySet()) {
+            inputs.add(file.toAbsolutePath().normalize());
+        }
+        Map<Path, Path> writers = new HashMap<>();
+        for (Map.Entry<Path, Path> entry : targets.entrySet()) {
+            Path input = entry.getKey().toAbsolutePath().normalize();
+            Path output = entry.getValue().toAbsolutePath().normalize();
+            Path other = writers.put(output, entry.getKey());
+            if (other != null) {
+                throw new IOException(entry.getKey() + " and " + other + " would both be written to " + entry.getValue());
+            }
+            if (!output.equals(input) && inputs.contains(output)) {
+                throw new IOException(entry.getKey() + " would be written over the input " + entry.getValue());
+            }
+        }
+    }
+    
+    /**
+     * Replaces directories with the world files directly inside of them
+     */
+    private static List<Path> expand(List<String> paths) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String name : paths) {
+            Path path = Path.of(name);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> children = Files.list(path)) {
+                    children.filter(Files::isRegularFile)
+                            .filter(child -> Arrays.stream(WorldFormat.values()).anyMatch(format -> child.toString().endsWith(format.extension)))
+                            .sorted()
+                            .forEach(files::add);
+                }
+            } else {
+                files.add(path);
+            }
+        }
+        return files;
+    }
+    
+    /**
+     * @return the file with the given extension next to the source file, or in {@code --out} if given
+     */
+    private Path outputFile(Path source, String extension) throws IOException {
+        String name = source.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        name = (dot > 0 ? name.substring(0, dot) : name) + extension;
+        if (options.containsKey("out")) {
+            Path directory = Path.of(options.get("out"));
+            Files.createDirectories(directory);
+            return directory.resolve(name);
+        }
+        return source.resolveSibling(name);
+    }
+    
+    private static synchronized Tileset tileset() {
+        if (tileset == null) {
+            tileset = Tileset.load();
+        }
+        return tileset;
+    }
+    
+    @FunctionalInterface
+    private interface WorldJob {
+        
+        /**
+         * @return a short description of the result
+         */
+        String process(Path file) throws Exception;
+        
+    }
+    
+}
@@ -0,0 +1,401 @@
+package lethalhabit.worldbuilder;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Versioned binary world file format, organised in chunk records.
+ * <pre>
+ * header:  int magic ("LHWB"), short version, short flags, byte chunk shift, 7 bytes reserved
+ * records: int chunkX, int chunkY, int capacity, int length, byte[capacity] payload   (repeated until end of file)
+ * </pre>
+ * The payload holds the block, liquid and interactable layers of a chunk as big-endian shorts, deflated if the
+ * {@link #FLAG_COMPRESSED} flag is set. A record whose length is negative is unused and skipped when reading.
+ */
+public final class BinaryWorldFormat {
+    
+    public static final int MAGIC = 0x4C485742;
+    public static final short VERSION = 1;
+    
+    public static final short FLAG_COMPRESSED = 1;
+    
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_HEADER_SIZE = 16;
+    public static final int RAW_PAYLOAD_SIZE = 3 * Chunk.AREA * Short.BYTES;
+    
+    /**
+     * Compressed payloads get their capacity rounded up to this, leaving some slack for rewriting a record in place
+     */
+    private static final int CAPACITY_ALIGNMENT = 64;
+    
+    private static final int BUFFER_SIZE = 1 << 16;
+    
+    private BinaryWorldFormat() {
+    }
+    
+    public static boolean isCompressedByDefault() {
+        return Boolean.getBoolean("worldbuilder.compress");
+    }
+    
+    public static WorldStore read(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.flip();
+        if (!fill(channel, buffer, HEADER_SIZE) || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a binary world file");
+        }
+        short version = buffer.getShort();
+        if (version > VERSION) {
+            throw new IOException("Unsupported world file version " + version);
+        }
+        boolean compressed = (buffer.getShort() & FLAG_COMPRESSED) != 0;
+        if (buffer.get() != Chunk.SHIFT) {
+            throw new IOException("Unsupported chunk size");
+        }
+        buffer.position(HEADER_SIZE);
+        
+        WorldStore world = new WorldStore();
+        Inflater inflater = compressed ? new Inflater() : null;
+        ByteBuffer payload = ByteBuffer.allocate(RAW_PAYLOAD_SIZE);
+        byte[] compressedPayload = new byte[0];
+        try {
+            while (fill(channel, buffer, RECORD_HEADER_SIZE)) {
+                int chunkX = buffer.getInt();
+                int chunkY = buffer.getInt();
+                int capacity = buffer.getInt();
+                int length = buffer.getInt();
+                if (capacity < 0 || length > capacity) {
+                    throw new IOException("Corrupt chunk record at " + chunkX + ", " + chunkY);
+                }
+                if (length < 0) {
+                    skip(channel, buffer, capacity);
+                    continue;
+                }
+                payload.clear();
+                if (compressed) {
+                    if (compressedPayload.length < capacity) {
+                        compressedPayload = new byte[capacity];
+                    }
+                    readFully(channel, buffer, compressedPayload, capacity);
+                    inflater.reset();
+                    inflater.setInput(compressedPayload, 0, length);
+                    try {
+                        if (inflater.inflate(payload.array()) != RAW_PAYLOAD_SIZE) {
+                            throw new IOException("Corrupt chunk record at " + chunkX + ", " + chunkY);
+                        }
+                    } catch (DataFormatException ex) {
+                        throw new IOException("Corrupt chunk record at " + chunkX + ", " + chunkY, ex);
+                    }
+                } else {
+                    if (length != RAW_PAYLOAD_SIZE) {
+                        throw new IOException("Corrupt chunk record at " + chunkX + ", " + chunkY);
+                    }
+                    readFully(channel, buffer, payload.array(), RAW_PAYLOAD_SIZE);
+                    skip(channel, buffer, capacity - length);
+                }
+                world.putChunk(decodeChunk(chunkX, chunkY, payload));
+            }
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+        // a freshly loaded world has no unsaved changes
+        world.takeDirtyChunks();
+        return world;
+    }
+    
+    public static void write(WorldStore world, WritableByteChannel channel, boolean compressed) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort(compressed ? FLAG_COMPRESSED : 0);
+        buffer.put((byte) Chunk.SHIFT);
+        buffer.position(HEADER_SIZE);
+        
+        // chunks of a paged world are read one at a time instead of paging them all in
+        List<Long> keys = new ArrayList<>(world.getChunkKeys());
+        keys.sort(Comparator.comparingInt(Chunk::keyY).thenComparingInt(Chunk::keyX));
+        Deflater deflater = compressed ? new Deflater(Deflater.BEST_SPEED) : null;
+        ByteBuffer payload = ByteBuffer.allocate(RAW_PAYLOAD_SIZE);
+        byte[] compressedPayload = new byte[RAW_PAYLOAD_SIZE * 2];
+        try {
+            for (long key : keys) {
+                Chunk chunk = world.readChunk(key);
+                if (chunk == null) {
+                    continue;
+                }
+                encodeChunk(chunk, payload.clear());
+                byte[] data = payload.array();
+                int length = RAW_PAYLOAD_SIZE;
+                int capacity = RAW_PAYLOAD_SIZE;
+                if (compressed) {
+                    deflater.reset();
+                    deflater.setInput(data, 0, RAW_PAYLOAD_SIZE);
+                    deflater.finish();
+                    length = deflater.deflate(compressedPayload);
+                    capacity = alignCapacity(length);
+                    data = compressedPayload;
+                }
+                ensureRemaining(channel, buffer, RECORD_HEADER_SIZE);
+                buffer.putInt(chunk.x);
+                buffer.putInt(chunk.y);
+                buffer.putInt(capacity);
+                buffer.putInt(length);
+                writeFully(channel, buffer, data, length);
+                writeZeros(channel, buffer, capacity - length);
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+    
+    /**
+     * Updates an existing world file in place, rewriting only the records of the given chunks.
+     * Changed chunks are written to an unused record that is large enough, or appended to the end of the file, and
+     * only then is their previous record marked as unused. If the update is interrupted, every chunk is either in its
+     * previous or in its new state.
+     *
+     * @param world  the world the file is to be updated to
+     * @param chunks keys of all chunks that differ between the file and the world
+     * @return false if nothing was written because the file should rather be rewritten completely, because it is not
+     * a readable world file or because more than half of it would be unused
+     */
+    public static boolean update(FileChannel channel, WorldStore world, Collection<Long> chunks) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        if (!readAt(channel, header.limit(HEADER_SIZE), 0) || header.getInt(0) != MAGIC || header.getShort(4) > VERSION || header.get(8) != Chunk.SHIFT) {
+            return false;
+        }
+        boolean compressed = (header.getShort(6) & FLAG_COMPRESSED) != 0;
+        
+        // positions of the live records, and the unused ones ordered by position
+        Map<Long, Long> records = new HashMap<>();
+        TreeMap<Long, Integer> unused = new TreeMap<>();
+        long size = channel.size();
+        long position = HEADER_SIZE;
+        long unusedBytes = 0;
+        while (position < size) {
+            if (!readAt(channel, header.clear().limit(RECORD_HEADER_SIZE), position)) {
+                return false;
+            }
+            int capacity = header.getInt(8);
+            if (capacity < 0 || position + RECORD_HEADER_SIZE + capacity > size) {
+                return false;
+            }
+            if (header.getInt(12) < 0) {
+                unused.put(position, capacity);
+                unusedBytes += RECORD_HEADER_SIZE + capacity;
+            } else {
+                records.put(Chunk.key(header.getInt(0), header.getInt(4)), position);
+            }
+            position += RECORD_HEADER_SIZE + capacity;
+        }
+        
+        List<Long> keys = new ArrayList<>(chunks);
+        keys.sort(null);
+        for (long key : keys) {
+            Long previous = records.get(key);
+            Chunk chunk = world.getChunk(Chunk.keyX(key), Chunk.keyY(key));
+            if (chunk == null && previous != null) {
+                unusedBytes += RECORD_HEADER_SIZE + readCapacity(channel, header, previous);
+            } else if (chunk != null) {
+                unusedBytes += previous == null ? 0 : RECORD_HEADER_SIZE + readCapacity(channel, header, previous);
+            }
+        }
+        if (unusedBytes * 2 > size) {
+            return false;
+        }
+        
+        Deflater deflater = compressed ? new Deflater(Deflater.BEST_SPEED) : null;
+        ByteBuffer payload = ByteBuffer.allocate(RAW_PAYLOAD_SIZE);
+        byte[] compressedPayload = new byte[RAW_PAYLOAD_SIZE * 2];
+        try {
+            for (long key : keys) {
+                Long previous = records.get(key);
+                Chunk chunk = world.getChunk(Chunk.keyX(key), Chunk.keyY(key));
+                if (chunk != null) {
+                    encodeChunk(chunk, payload.clear());
+                    ByteBuffer data = payload.flip();
+                    int capacity = RAW_PAYLOAD_SIZE;
+                    if (compressed) {
+                        deflater.reset();
+                        deflater.setInput(payload.array(), 0, RAW_PAYLOAD_SIZE);
+                        deflater.finish();
+                        int length = deflater.deflate(compressedPayload);
+                        data = ByteBuffer.wrap(compressedPayload, 0, length);
+                        capacity = alignCapacity(length);
+                    }
+                    long target = size;
+                    for (Map.Entry<Long, Integer> entry : unused.entrySet()) {
+                        if (entry.getValue() >= data.remaining()) {
+                            target = entry.getKey();
+                            capacity = entry.getValue();
+                            break;
+                        }
+                    }
+                    int length = data.remaining();
+                    // the record is written as unused first and only becomes live once its length is set
+                    if (target == size) {
+                        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + capacity);
+                        record.putInt(chunk.x).putInt(chunk.y).putInt(capacity).putInt(-1).put(data).clear();
+                        writeAt(channel, record, target);
+                        size += record.capacity();
+                    } else {
+                        unused.remove(target);
+                        writeAt(channel, data, target + RECORD_HEADER_SIZE);
+                        writeAt(channel, header.clear().putInt(chunk.x).putInt(chunk.y).putInt(capacity).putInt(-1).flip(), target);
+                    }
+                    writeAt(channel, header.clear().putInt(length).flip(), target + 12);
+                }
+                if (previous != null) {
+                    writeAt(channel, header.clear().putInt(-1).flip(), previous + 12);
+                    unused.put(previous, readCapacity(channel, header, previous));
+                }
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        channel.force(false);
+        return true;
+    }
+    
+    private static int readCapacity(FileChannel channel, ByteBuffer header, long record) throws IOException {
+        if (!readAt(channel, header.clear().limit(Integer.BYTES), record + 8)) {
+            throw new EOFException("Unexpected end of world file");
+        }
+        return header.getInt(0);
+    }
+    
+    private static boolean readAt(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static void writeAt(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+    }
+    
+    static int alignCapacity(int length) {
+        return (length + CAPACITY_ALIGNMENT - 1) / CAPACITY_ALIGNMENT * CAPACITY_ALIGNMENT;
+    }
+    
+    static void encodeChunk(Chunk chunk, ByteBuffer payload) {
+        payload.asShortBuffer().put(chunk.blocks).put(chunk.liquids).put(chunk.interactables);
+        payload.position(RAW_PAYLOAD_SIZE);
+    }
+    
+    static Chunk decodeChunk(int chunkX, int chunkY, ByteBuffer payload) {
+        Chunk chunk = new Chunk(chunkX, chunkY);
+        payload.clear();
+        payload.asShortBuffer().get(chunk.blocks).get(chunk.liquids).get(chunk.interactables);
+        return chunk;
+    }
+    
+    /**
+     * Makes sure the read buffer holds at least the given number of bytes
+     *
+     * @return false if the channel ended cleanly before any further byte could be read
+     */
+    private static boolean fill(ReadableByteChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return true;
+        }
+        boolean empty = !buffer.hasRemaining();
+        buffer.compact();
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) {
+                buffer.flip();
+                if (empty && !buffer.hasRemaining()) {
+                    return false;
+                }
+                throw new EOFException("Unexpected end of world file");
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+    
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer, byte[] target, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            if (!buffer.hasRemaining() && !fill(channel, buffer, 1)) {
+                throw new EOFException("Unexpected end of world file");
+            }
+            int count = Math.min(buffer.remaining(), length - offset);
+            buffer.get(target, offset, count);
+            offset += count;
+        }
+    }
+    
+    private static void skip(ReadableByteChannel channel, ByteBuffer buffer, int length) throws IOException {
+        while (length > 0) {
+            if (!buffer.hasRemaining() && !fill(channel, buffer, 1)) {
+                throw new EOFException("Unexpected end of world file");
+            }
+            int count = Math.min(buffer.remaining(), length);
+            buffer.position(buffer.position() + count);
+            length -= count;
+        }
+    }
+    
+    private static void ensureRemaining(WritableByteChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+    
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer, byte[] data, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            ensureRemaining(channel, buffer, 1);
+            int count = Math.min(buffer.remaining(), length - offset);
+            buffer.put(data, offset, count);
+            offset += count;
+        }
+    }
+    
+    private static void writeZeros(WritableByteChannel channel, ByteBuffer buffer, int length) throws IOException {
+        while (length > 0) {
+            ensureRemaining(channel, buffer, 1);
+            int count = Math.min(buffer.remaining(), length);
+            Arrays.fill(buffer.array(), buffer.position(), buffer.position() + count, (byte) 0);
+            buffer.position(buffer.position() + count);
+            length -= count;
+        }
+    }
+    
+}
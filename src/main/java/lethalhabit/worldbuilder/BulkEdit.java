@@ -0,0 +1,224 @@
+package lethalhabit.worldbuilder;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Edits that change many tiles at once. They cost O(affected tiles) and go through {@link WorldStore#setTile} like
+ * any other edit, so an undo step around them records every change. Shapes are not updated tile by tile, every
+ * operation returns the area it changed so that it can be {@link AutoShaper#shapeArea reshaped} in one pass.
+ */
+public final class BulkEdit {
+    
+    /**
+     * Flood fills stop at this many tiles, so a fill that escapes into open space cannot hang the editor
+     */
+    public static final int MAX_FILL_TILES = 4_000_000;
+    
+    private BulkEdit() {
+    }
+    
+    /**
+     * Scanline flood fill of one layer: replaces the value of the layer at the start cell and of every cell connected
+     * to it, horizontally or vertically, that has the same value in that layer. The other layers are left alone.
+     * Filling an empty layer fills the empty cells around the start, e.g. a cavern.
+     *
+     * @param limit the fill never leaves this area
+     * @return the area that changed, {@code null} if nothing changed
+     */
+    public static Rectangle floodFill(WorldStore world, int x, int y, Layer layer, int value, Rectangle limit) {
+        return floodFill(world, x, y, layer, value, limit, false);
+    }
+    
+    /**
+     * Flood fill that optionally treats all shapes of a material as the same value, so that a region of an auto
+     * shaped material is filled completely instead of only the cells with the shape of the start cell
+     *
+     * @param byGroup whether values are compared by their {@link Layer#groupSize() group}
+     * @see #floodFill(WorldStore, int, int, Layer, int, Rectangle)
+     */
+    public static Rectangle floodFill(WorldStore world, int x, int y, Layer layer, int value, Rectangle limit, boolean byGroup) {
+        int groupSize = byGroup ? layer.groupSize() : 1;
+        int target = group(world, x, y, layer, groupSize);
+        if (target == Math.floorDiv(value, groupSize) || !limit.contains(x, y)) {
+            return null;
+        }
+        int minX = limit.x, maxX = limit.x + limit.width - 1;
+        int minY = limit.y, maxY = limit.y + limit.height - 1;
+        Bounds changed = new Bounds();
+        // cells to start a span from, as pairs of coordinates
+        int[] stack = new int[64];
+        int size = 0;
+        stack[size++] = x;
+        stack[size++] = y;
+        long filled = 0;
+        while (size > 0 && filled < MAX_FILL_TILES) {
+            int spanY = stack[--size];
+            int spanX = stack[--size];
+            if (group(world, spanX, spanY, layer, groupSize) != target) {
+                continue;
+            }
+            int left = spanX, right = spanX;
+            while (left > minX && group(world, left - 1, spanY, layer, groupSize) == target) {
+                left--;
+            }
+            while (right < maxX && group(world, right + 1, spanY, layer, groupSize) == target) {
+                right++;
+            }
+            for (int fillX = left; fillX <= right; fillX++) {
+                layer.set(world, fillX, spanY, value);
+            }
+            filled += right - left + 1;
+            changed.add(left, spanY);
+            changed.add(right, spanY);
+            // push the first cell of every run that continues the span above and below
+            for (int nextY = spanY - 1; nextY <= spanY + 1; nextY += 2) {
+                if (nextY < minY || nextY > maxY) {
+                    continue;
+                }
+                boolean inRun = false;
+                for (int nextX = left; nextX <= right; nextX++) {
+                    boolean matches = group(world, nextX, nextY, layer, groupSize) == target;
+                    if (matches && !inRun) {
+                        if (size + 2 > stack.length) {
+                            stack = Arrays.copyOf(stack, stack.length * 2);
+                        }
+                        stack[size++] = nextX;
+                        stack[size++] = nextY;
+                    }
+                    inRun = matches;
+                }
+            }
+        }
+        return changed.toRectangle();
+    }
+    
+    /**
+     * @return the group of the layer's value at the cell, -1 if it is empty
+     */
+    private static int group(WorldStore world, int x, int y, Layer layer, int groupSize) {
+        return Math.floorDiv(layer.get(world, x, y), groupSize);
+    }
+    
+    /**
+     * Sets every cell of the area to the given tile; negative layers are left as they are in each cell
+     *
+     * @return the area that changed, {@code null} if nothing changed
+     */
+    public static Rectangle fillRectangle(WorldStore world, Rectangle area, int block, int liquid, int interactable) {
+        Bounds changed = new Bounds();
+        for (int y = area.y; y < area.y + area.height; y++) {
+            for (int x = area.x; x < area.x + area.width; x++) {
+                if (world.setTile(x, y,
+                        block >= 0 ? block : world.getBlock(x, y),
+                        liquid >= 0 ? liquid : world.getLiquid(x, y),
+                        interactable >= 0 ? interactable : world.getInteractable(x, y))) {
+                    changed.add(x, y);
+                }
+            }
+        }
+        return changed.toRectangle();
+    }
+    
+    /**
+     * Removes every tile inside the area, only the chunks that exist are visited
+     *
+     * @return the area that changed, {@code null} if nothing changed
+     */
+    public static Rectangle clearRectangle(WorldStore world, Rectangle area) {
+        Bounds changed = new Bounds();
+        int maxX = area.x + area.width - 1, maxY = area.y + area.height - 1;
+        for (int chunkY = area.y >> Chunk.SHIFT; chunkY <= maxY >> Chunk.SHIFT; chunkY++) {
+            for (int chunkX = area.x >> Chunk.SHIFT; chunkX <= maxX >> Chunk.SHIFT; chunkX++) {
+                Chunk chunk = world.getChunk(chunkX, chunkY);
+                if (chunk == null) {
+                    continue;
+                }
+                int fromX = Math.max(area.x, chunk.originX()), toX = Math.min(maxX, chunk.originX() + Chunk.MASK);
+                int fromY = Math.max(area.y, chunk.originY()), toY = Math.min(maxY, chunk.originY() + Chunk.MASK);
+                for (int y = fromY; y <= toY; y++) {
+                    for (int x = fromX; x <= toX; x++) {
+                        if (world.removeTile(x, y)) {
+                            changed.add(x, y);
+                        }
+                    }
+                }
+            }
+        }
+        return changed.toRectangle();
+    }
+    
+    /**
+     * @return the area grown by one cell on every side, the cells whose shape an edit of the area can affect
+     */
+    public static Rectangle withNeighbours(Rectangle area) {
+        return new Rectangle(area.x - 1, area.y - 1, area.width + 2, area.height + 2);
+    }
+    
+    /**
+     * One of the three layers of a cell
+     */
+    public enum Layer {
+        
+        BLOCK, LIQUID, INTERACTABLE;
+        
+        /**
+         * @return the value of this layer at the given cell, -1 if it is empty
+         */
+        public int get(WorldStore world, int x, int y) {
+            Chunk chunk = world.getChunk(x >> Chunk.SHIFT, y >> Chunk.SHIFT);
+            if (chunk == null) {
+                return -1;
+            }
+            int index = Chunk.index(x & Chunk.MASK, y & Chunk.MASK);
+            return switch (this) {
+                case BLOCK -> chunk.getBlock(index);
+                case LIQUID -> chunk.getLiquid(index);
+                case INTERACTABLE -> chunk.getInteractable(index);
+            };
+        }
+        
+        /**
+         * @return the number of consecutive values that are shapes of the same material
+         */
+        public int groupSize() {
+            return switch (this) {
+                case BLOCK -> WorldBuilder.TILE_GROUP_SIZE;
+                case LIQUID -> WorldBuilder.LIQUID_GROUP_SIZE;
+                case INTERACTABLE -> 1;
+            };
+        }
+        
+        /**
+         * Sets this layer of a cell, keeping the other layers
+         */
+        public boolean set(WorldStore world, int x, int y, int value) {
+            return world.setTile(x, y,
+                    this == BLOCK ? value : world.getBlock(x, y),
+                    this == LIQUID ? value : world.getLiquid(x, y),
+                    this == INTERACTABLE ? value : world.getInteractable(x, y));
+        }
+        
+    }
+    
+    /**
+     * Grows to the bounding box of the cells added to it
+     */
+    private static final class Bounds {
+        
+        private int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        
+        private void add(int x, int y) {
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        
+        private Rectangle toRectangle() {
+            return minX > maxX ? null : new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+        }
+        
+    }
+    
+}
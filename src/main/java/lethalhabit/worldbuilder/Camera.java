@@ -5,6 +5,11 @@ public final class Camera {
     public static final int MAX_SPEED = 20;
     public static final int MIN_SPEED = 1;
     
+    /**
+     * Speeds are measured in pixels per reference frame
+     */
+    public static final long REFERENCE_FRAME_NANOS = 1_000_000_000L / 60;
+    
     private int speed;
     
     /**
@@ -12,6 +17,11 @@ public final class Camera {
      */
     private Point position;
     
+    /**
+     * Sub-pixel part of the position in [0, 1), collected from movements that did not add up to whole pixels yet
+     */
+    private double fractionX = 0, fractionY = 0;
+    
     public Camera(Point position, int speed) {
         this.position = position;
         this.speed = speed;
@@ -23,14 +33,18 @@ public final class Camera {
     
     public Camera(Camera other) {
         this(other.position, other.speed);
+        this.fractionX = other.fractionX;
+        this.fractionY = other.fractionY;
     }
     
     public void setPosition(Point position) {
         this.position = position;
+        this.fractionX = 0;
+        this.fractionY = 0;
     }
     
     public void setPosition(int x, int y) {
-        this.position = new Point(x, y);
+        setPosition(new Point(x, y));
     }
     
     public Point getPosition() {
@@ -49,6 +63,31 @@ public final class Camera {
         position = position.plus(x, y);
     }
     
+    /**
+     * Moves the camera by the distance covered at the given speed in the given time. Fractions of a pixel are kept
+     * and carried over to the next movement, so the camera covers the same distance per second at any frame rate.
+     *
+     * @param directionX -1, 0 or 1
+     * @param directionY -1, 0 or 1
+     */
+    public void move(int directionX, int directionY, int speed, long elapsedNanos) {
+        double distance = distance(speed, elapsedNanos);
+        fractionX += directionX * distance;
+        fractionY += directionY * distance;
+        int pixelsX = (int) Math.floor(fractionX);
+        int pixelsY = (int) Math.floor(fractionY);
+        fractionX -= pixelsX;
+        fractionY -= pixelsY;
+        position = position.plus(pixelsX, pixelsY);
+    }
+    
+    /**
+     * @return the distance in pixels covered at the given speed in the given time
+     */
+    public static double distance(int speed, long elapsedNanos) {
+        return (double) speed * elapsedNanos / REFERENCE_FRAME_NANOS;
+    }
+    
     public void moveX(int amount) {
         move(amount, 0);
     }
@@ -0,0 +1,201 @@
+package lethalhabit.worldbuilder;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-size square section of the world.
+ * Every layer is stored in its own primitive array, indexed by {@link #index(int, int)}; empty cells hold {@code -1}.
+ */
+public final class Chunk {
+    
+    public static final int SHIFT = 4;
+    public static final int SIZE = 1 << SHIFT;
+    public static final int MASK = SIZE - 1;
+    public static final int AREA = SIZE * SIZE;
+    
+    /**
+     * Odd multiplier that spreads the x coordinate over all bits of the y half of a key
+     */
+    private static final int KEY_MIX = 0x9E3779B9;
+    
+    /**
+     * Approximate heap size of a chunk in bytes, its three layers and the object headers
+     */
+    public static final long MEMORY_USAGE = 3L * (16 + AREA * Short.BYTES) + 48;
+    
+    /**
+     * Chunk coordinates (world coordinates divided by {@link #SIZE})
+     */
+    public final int x;
+    public final int y;
+    
+    final short[] blocks = new short[AREA];
+    final short[] liquids = new short[AREA];
+    final short[] interactables = new short[AREA];
+    
+    private int tileCount = 0;
+    
+    /**
+     * Source of the versions of all chunks, so that a version is never given out twice, not even to another chunk
+     */
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    
+    /**
+     * Drawn anew on every change, lets caches derived from the chunk detect that they are outdated without holding on
+     * to it. {@code 0} until the first change
+     */
+    private long version = 0;
+    
+    /**
+     * Version the chunk had when it was last read from or written to a {@link ChunkBackend}
+     */
+    long storedVersion = 0;
+    
+    /**
+     * Value of the owning world's access clock when the chunk was last looked up, used to evict the least recently
+     * used chunks of a paged world
+     */
+    long lastAccess = 0;
+    
+    /**
+     * {@link WorldStore#snapshot() Generation} of the world the chunk was created or copied in, a chunk of an older
+     * generation may be shared with a snapshot and must not be changed
+     */
+    int generation = 0;
+    
+    Chunk(int x, int y) {
+        this.x = x;
+        this.y = y;
+        Arrays.fill(blocks, (short) -1);
+        Arrays.fill(liquids, (short) -1);
+        Arrays.fill(interactables, (short) -1);
+    }
+    
+    Chunk(Chunk other) {
+        this.x = other.x;
+        this.y = other.y;
+        System.arraycopy(other.blocks, 0, blocks, 0, AREA);
+        System.arraycopy(other.liquids, 0, liquids, 0, AREA);
+        System.arraycopy(other.interactables, 0, interactables, 0, AREA);
+        this.tileCount = other.tileCount;
+        this.version = other.version;
+        this.storedVersion = other.storedVersion;
+    }
+    
+    public static int index(int localX, int localY) {
+        return (localY << SHIFT) | localX;
+    }
+    
+    /**
+     * Packs chunk coordinates into one value, only to be unpacked with {@link #keyX} and {@link #keyY}. The y half is
+     * scrambled with x, otherwise the hash code of the key would be {@code x ^ y}, and the keys of a square of
+     * chunks would share a handful of hash codes.
+     */
+    public static long key(int chunkX, int chunkY) {
+        return ((long) chunkX << 32) | ((chunkY ^ chunkX * KEY_MIX) & 0xFFFFFFFFL);
+    }
+    
+    public static int keyX(long key) {
+        return (int) (key >> 32);
+    }
+    
+    public static int keyY(long key) {
+        return (int) key ^ keyX(key) * KEY_MIX;
+    }
+    
+    public long key() {
+        return key(x, y);
+    }
+    
+    public int originX() {
+        return x << SHIFT;
+    }
+    
+    public int originY() {
+        return y << SHIFT;
+    }
+    
+    public int getBlock(int index) {
+        return blocks[index];
+    }
+    
+    public int getLiquid(int index) {
+        return liquids[index];
+    }
+    
+    public int getInteractable(int index) {
+        return interactables[index];
+    }
+    
+    public boolean isOccupied(int index) {
+        return (blocks[index] & liquids[index] & interactables[index]) != -1;
+    }
+    
+    /**
+     * Writes all layers of a single cell
+     *
+     * @return whether the cell changed
+     */
+    boolean set(int index, int block, int liquid, int interactable) {
+        short b = checked(block), l = checked(liquid), i = checked(interactable);
+        if (blocks[index] == b && liquids[index] == l && interactables[index] == i) {
+            return false;
+        }
+        boolean wasOccupied = isOccupied(index);
+        blocks[index] = b;
+        liquids[index] = l;
+        interactables[index] = i;
+        boolean occupied = isOccupied(index);
+        if (wasOccupied != occupied) {
+            tileCount += occupied ? 1 : -1;
+        }
+        version = VERSIONS.incrementAndGet();
+        return true;
+    }
+    
+    /**
+     * Recomputes the number of occupied cells after the layer arrays were filled in bulk
+     */
+    void recount() {
+        int count = 0;
+        for (int index = 0; index < AREA; index++) {
+            if (isOccupied(index)) {
+                count++;
+            }
+        }
+        tileCount = count;
+        version = VERSIONS.incrementAndGet();
+    }
+    
+    public int getTileCount() {
+        return tileCount;
+    }
+    
+    public boolean isEmpty() {
+        return tileCount == 0;
+    }
+    
+    public long getVersion() {
+        return version;
+    }
+    
+    /**
+     * @return whether the chunk changed since it was last read from or written to its backend
+     */
+    boolean isModified() {
+        return version != storedVersion;
+    }
+    
+    void markStored() {
+        storedVersion = version;
+    }
+    
+    private static short checked(int value) {
+        if (value > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Tile index out of range: " + value);
+        }
+        return (short) Math.max(-1, value);
+    }
+    
+}
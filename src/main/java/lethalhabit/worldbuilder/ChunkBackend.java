@@ -0,0 +1,48 @@
+package lethalhabit.worldbuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Persistent chunk storage that a paged {@link WorldStore} reads its chunks from on demand and writes them back to,
+ * so that only the part of a world that is being looked at has to be in memory.
+ * Errors while reading or writing single chunks are thrown as {@link java.io.UncheckedIOException}.
+ * Implementations must allow chunks to be loaded from several threads at once, and must never hand out a chunk
+ * that is only partly written.
+ */
+public interface ChunkBackend extends Closeable {
+    
+    /**
+     * @return a new copy of the stored chunk, or {@code null} if there is none
+     */
+    Chunk load(int chunkX, int chunkY);
+    
+    /**
+     * Stores the chunk, replacing the one at the same position, empty chunks are removed
+     */
+    void store(Chunk chunk);
+    
+    void remove(int chunkX, int chunkY);
+    
+    /**
+     * @return the keys of all stored chunks
+     */
+    Set<Long> keys();
+    
+    /**
+     * @return the number of occupied cells of all stored chunks
+     */
+    long getTileCount();
+    
+    /**
+     * Hints that the chunks in the given range are about to be loaded, so reading them can start in the background
+     */
+    void prefetch(int minChunkX, int minChunkY, int maxChunkX, int maxChunkY);
+    
+    /**
+     * Forces everything stored so far onto the storage device
+     */
+    void flush() throws IOException;
+    
+}
@@ -0,0 +1,175 @@
+package lethalhabit.worldbuilder;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps one image per chunk with all of its layers composited at the current tile size, optionally translucent.
+ * At zoom levels where a chunk would be larger than {@link #MAX_CHUNK_IMAGE_SIZE} chunks are split into square
+ * sections that are cached separately, so only the visible part of a chunk is composited.
+ * Entries are validated against the {@link Chunk#getVersion() version} of their chunk, so any change to the world
+ * invalidates them automatically. The least recently drawn sections are evicted once the memory cap is exceeded.
+ */
+public final class ChunkImageCache {
+    
+    public static final int DEFAULT_MEMORY_CAP_MB = 256;
+    
+    /**
+     * Chunks that would be larger than this (in pixels per side) are cached in sections of at most this size
+     */
+    public static final int MAX_CHUNK_IMAGE_SIZE = 1024;
+    
+    private final long memoryCap;
+    
+    /**
+     * Opacity every layer is composited with
+     */
+    private final AlphaComposite layerComposite;
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    
+    private long memoryUsage = 0;
+    private int tileSize = -1;
+    private Tileset tileset = null;
+    
+    private long hits = 0;
+    private long misses = 0;
+    private int tileCount = 0;
+    
+    public ChunkImageCache(long memoryCap, float alpha) {
+        this.memoryCap = memoryCap;
+        this.layerComposite = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha);
+    }
+    
+    public ChunkImageCache(float alpha) {
+        this(Integer.getInteger("worldbuilder.chunkCacheMB", DEFAULT_MEMORY_CAP_MB) * 1024L * 1024L, alpha);
+    }
+    
+    public ChunkImageCache() {
+        this(1f);
+    }
+    
+    /**
+     * @return the number of cells per side of the sections chunks are cached in at the given tile size, a power of two
+     * that divides {@link Chunk#SIZE}
+     */
+    public static int sectionSize(int tileSize) {
+        int size = Chunk.SIZE;
+        while (size > 1 && size * tileSize > MAX_CHUNK_IMAGE_SIZE) {
+            size >>= 1;
+        }
+        return size;
+    }
+    
+    /**
+     * @param sectionX section column, in units of {@link #sectionSize} cells
+     * @param sectionY section row, in units of {@link #sectionSize} cells
+     * @return the composited image of the given section of the chunk, rendered again if the chunk changed since it
+     * was cached
+     */
+    public BufferedImage get(Chunk chunk, int sectionX, int sectionY, int tileSize, Tileset tileset) {
+        if (tileSize != this.tileSize || tileset != this.tileset) {
+            // zoom level or tileset changed
+            clear();
+            this.tileSize = tileSize;
+            this.tileset = tileset;
+        }
+        long key = Chunk.key(sectionX, sectionY);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.chunk == chunk && entry.version == chunk.getVersion()) {
+            hits++;
+            tileCount = entry.tileCount;
+            return entry.image;
+        }
+        misses++;
+        if (entry == null) {
+            int size = tileSize * sectionSize(tileSize);
+            entry = new Entry(new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB_PRE));
+            entries.put(key, entry);
+            memoryUsage += entry.memoryUsage();
+            evict();
+        }
+        entry.chunk = chunk;
+        entry.version = chunk.getVersion();
+        entry.tileCount = composite(entry.image, chunk, sectionX, sectionY, tileSize, tileset);
+        tileCount = entry.tileCount;
+        return entry.image;
+    }
+    
+    /**
+     * @return the number of occupied cells in the section
+     */
+    private int composite(BufferedImage image, Chunk chunk, int sectionX, int sectionY, int tileSize, Tileset tileset) {
+        int sectionSize = sectionSize(tileSize);
+        int minX = (sectionX * sectionSize) & Chunk.MASK, minY = (sectionY * sectionSize) & Chunk.MASK;
+        int tiles = 0;
+        Graphics2D g = image.createGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.setComposite(layerComposite);
+        for (int y = 0; y < sectionSize; y++) {
+            for (int x = 0; x < sectionSize; x++) {
+                int index = Chunk.index(minX + x, minY + y);
+                if (chunk.isOccupied(index)) {
+                    tiles++;
+                    WorldRenderer.drawTile(g, chunk, index, x * tileSize, y * tileSize, tileSize, tileset);
+                }
+            }
+        }
+        g.dispose();
+        return tiles;
+    }
+    
+    private void evict() {
+        Iterator<Map.Entry<Long, Entry>> iterator = entries.entrySet().iterator();
+        while (memoryUsage > memoryCap && entries.size() > 1 && iterator.hasNext()) {
+            memoryUsage -= iterator.next().getValue().memoryUsage();
+            iterator.remove();
+        }
+    }
+    
+    public void clear() {
+        entries.clear();
+        memoryUsage = 0;
+    }
+    
+    public long getMemoryUsage() {
+        return memoryUsage;
+    }
+    
+    public long getHits() {
+        return hits;
+    }
+    
+    public long getMisses() {
+        return misses;
+    }
+    
+    /**
+     * @return the number of occupied cells in the section last returned by {@link #get}
+     */
+    public int getTileCount() {
+        return tileCount;
+    }
+    
+    private static final class Entry {
+        
+        private final BufferedImage image;
+        private Chunk chunk;
+        private long version;
+        private int tileCount;
+        
+        private Entry(BufferedImage image) {
+            this.image = image;
+        }
+        
+        private long memoryUsage() {
+            return (long) image.getWidth() * image.getHeight() * Integer.BYTES;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,112 @@
+package lethalhabit.worldbuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pages a world in from a backend that is never written to. Chunks that are stored or removed go to a scratch region
+ * world in a temporary directory instead, which shadows the base from then on and is deleted on close. Lets a paged
+ * world be changed and exported somewhere else without touching the files it was read from.
+ */
+public final class CopyOnWriteBackend implements ChunkBackend {
+    
+    private final ChunkBackend base;
+    private final RegionFileBackend scratch;
+    private final Path directory;
+    
+    /**
+     * Keys of the chunks whose current state is in the scratch world, whether they are stored there or removed
+     */
+    private final Set<Long> shadowed = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * Number of occupied cells of the base chunks that are shadowed
+     */
+    private final AtomicLong shadowedTiles = new AtomicLong();
+    
+    private CopyOnWriteBackend(ChunkBackend base, Path directory) throws IOException {
+        this.base = base;
+        this.directory = directory;
+        this.scratch = RegionFileBackend.create(directory.resolve("scratch" + RegionFileBackend.EXTENSION));
+    }
+    
+    /**
+     * Opens a region world without ever writing to its files
+     */
+    public static CopyOnWriteBackend open(Path indexFile) throws IOException {
+        RegionFileBackend base = RegionFileBackend.open(indexFile);
+        try {
+            return new CopyOnWriteBackend(base, Files.createTempDirectory("world-scratch"));
+        } catch (IOException ex) {
+            base.close();
+            throw ex;
+        }
+    }
+    
+    @Override
+    public Chunk load(int chunkX, int chunkY) {
+        return shadowed.contains(Chunk.key(chunkX, chunkY)) ? scratch.load(chunkX, chunkY) : base.load(chunkX, chunkY);
+    }
+    
+    @Override
+    public void store(Chunk chunk) {
+        shadow(chunk.x, chunk.y);
+        scratch.store(chunk);
+    }
+    
+    @Override
+    public void remove(int chunkX, int chunkY) {
+        shadow(chunkX, chunkY);
+        scratch.remove(chunkX, chunkY);
+    }
+    
+    private void shadow(int chunkX, int chunkY) {
+        if (shadowed.add(Chunk.key(chunkX, chunkY))) {
+            Chunk chunk = base.load(chunkX, chunkY);
+            if (chunk != null) {
+                shadowedTiles.addAndGet(chunk.getTileCount());
+            }
+        }
+    }
+    
+    @Override
+    public Set<Long> keys() {
+        Set<Long> keys = base.keys();
+        keys.removeAll(shadowed);
+        keys.addAll(scratch.keys());
+        return keys;
+    }
+    
+    @Override
+    public long getTileCount() {
+        return base.getTileCount() - shadowedTiles.get() + scratch.getTileCount();
+    }
+    
+    @Override
+    public void prefetch(int minChunkX, int minChunkY, int maxChunkX, int maxChunkY) {
+        base.prefetch(minChunkX, minChunkY, maxChunkX, maxChunkY);
+    }
+    
+    /**
+     * Nothing has to be durable, the scratch world is thrown away on close
+     */
+    @Override
+    public void flush() {
+    }
+    
+    @Override
+    public void close() throws IOException {
+        try {
+            base.close();
+        } finally {
+            scratch.close();
+            RegionFileBackend.delete(scratch.getIndexFile());
+            Files.deleteIfExists(directory);
+        }
+    }
+    
+}
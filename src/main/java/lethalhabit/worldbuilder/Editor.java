@@ -1,7 +1,5 @@
 package lethalhabit.worldbuilder;
 
-import org.imgscalr.Scalr;
-
 import javax.imageio.ImageIO;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
@@ -11,6 +9,7 @@ import javax.swing.text.PlainDocument;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.InputStream;
 import java.util.List;
 import java.util.*;
@@ -19,28 +18,48 @@ import static lethalhabit.worldbuilder.Util.*;
 
 public class Editor extends JFrame {
     
-    private static final List<BufferedImage> OG_TILEMAP = new ArrayList<>();
-    private static final List<BufferedImage> OG_LIQUID_TILEMAP = new ArrayList<>();
-    private static final List<BufferedImage> OG_INTERACTABLE_TILEMAP = new ArrayList<>();
+    private static final Tileset OG_TILESET = loadTileset();
+    private static final List<BufferedImage> OG_TILEMAP = OG_TILESET.blocks();
+    private static final List<BufferedImage> OG_LIQUID_TILEMAP = OG_TILESET.liquids();
+    private static final List<BufferedImage> OG_INTERACTABLE_TILEMAP = OG_TILESET.interactables();
+    
+    /**
+     * Tileset currently drawn, may still be at the previous zoom level while the current one is being scaled
+     */
+    private static Tileset TILESET = OG_TILESET;
+    private static TileScaleCache SCALE_CACHE;
+    
+    
+    /**
+     * Key codes are looked up in a fixed bit set, codes beyond it are never held
+     */
+    private static final int KEY_CODES = 0x10000;
+    private static final BitSet heldKeys = new BitSet(KEY_CODES);
     
-    private static List<BufferedImage> TILEMAP = new ArrayList<>();
-    private static List<BufferedImage> LIQUID_TILEMAP = new ArrayList<>();
-    private static List<BufferedImage> INTERACTABLE_TILEMAP = new ArrayList<>();
-    private static final List<Integer> activeKeys = new ArrayList<>();
+    /**
+     * Chunks around the visible ones that paged worlds read ahead, on every side
+     */
+    private static final int PREFETCH_MARGIN = 4;
+    
+    /**
+     * Pixels the tile size changes by per zoom step, above single pixel steps at the smallest sizes
+     */
+    private static final int ZOOM_STEP = 5;
     
     private final EditorPane editorPane;
     private final Toolbar toolbar;
     private final Toolbar sidebarR;
     private final Toolbar sidebarL;
     
-    private Map<Integer, Map<Integer, Tile>> importedWorldData = null;
+    private WorldStore importedWorldData = null;
     private int importedWorldOffsetX = 0;
     private int importedWorldOffsetY = 0;
     
     private boolean inferOrientation = true;
+    private boolean minimapInProgress = false;
     
     public Editor() {
-        loadTilemaps();
+        initTileScaling();
         setTitle("Lethal Habit - World Builder");
         setSize(1300, 800);
         setDefaultCloseOperation(DISPOSE_ON_CLOSE);
@@ -48,9 +67,9 @@ public class Editor extends JFrame {
         setResizable(true);
         setLayout(new BorderLayout());
         editorPane = new EditorPane();
-        toolbar = new Toolbar(TILEMAP, true, true);
-        sidebarR = new Toolbar(LIQUID_TILEMAP, false, true);
-        sidebarL = new Toolbar(INTERACTABLE_TILEMAP, false, false);
+        toolbar = new Toolbar(OG_TILEMAP, true, true);
+        sidebarR = new Toolbar(OG_LIQUID_TILEMAP, false, true);
+        sidebarL = new Toolbar(OG_INTERACTABLE_TILEMAP, false, false);
         add(editorPane, BorderLayout.CENTER);
         add(toolbar, BorderLayout.PAGE_START);
         add(sidebarR, BorderLayout.LINE_END);
@@ -74,6 +93,8 @@ public class Editor extends JFrame {
                     case KeyEvent.VK_P -> {
                         // toggle orientation inferring mode
                         inferOrientation = !inferOrientation;
+                        toolbar.refresh();
+                        sidebarR.refresh();
                     }
                     case KeyEvent.VK_RIGHT -> {
                         // move imported world right
@@ -103,22 +124,22 @@ public class Editor extends JFrame {
                         // move toolbar selection left
                         toolbar.prepareSelection();
                         if (inferOrientation) {
-                            int tileGroupCount = TILEMAP.size() / WorldBuilder.TILE_GROUP_SIZE;
+                            int tileGroupCount = OG_TILEMAP.size() / WorldBuilder.TILE_GROUP_SIZE;
                             int currentGroup = Math.max(0, toolbar.getSelection()) / WorldBuilder.TILE_GROUP_SIZE;
                             toolbar.select((((currentGroup - 1) % tileGroupCount + tileGroupCount) % tileGroupCount) * WorldBuilder.TILE_GROUP_SIZE);
                         } else {
-                            toolbar.select((Math.max(-1, (toolbar.getSelection() - 1)) % TILEMAP.size() + TILEMAP.size()) % TILEMAP.size());
+                            toolbar.select((Math.max(-1, (toolbar.getSelection() - 1)) % OG_TILEMAP.size() + OG_TILEMAP.size()) % OG_TILEMAP.size());
                         }
                     }
                     case KeyEvent.VK_E -> {
                         // move toolbar selection right
                         toolbar.prepareSelection();
                         if (inferOrientation) {
-                            int tileGroupCount = TILEMAP.size() / WorldBuilder.TILE_GROUP_SIZE;
+                            int tileGroupCount = OG_TILEMAP.size() / WorldBuilder.TILE_GROUP_SIZE;
                             int currentGroup = toolbar.getSelection() / WorldBuilder.TILE_GROUP_SIZE;
                             toolbar.select(((currentGroup + 1) % tileGroupCount) * WorldBuilder.TILE_GROUP_SIZE);
                         } else {
-                            toolbar.select((toolbar.getSelection() + 1) % TILEMAP.size());
+                            toolbar.select((toolbar.getSelection() + 1) % OG_TILEMAP.size());
                         }
                     }
                     case KeyEvent.VK_C -> {
@@ -135,7 +156,7 @@ public class Editor extends JFrame {
                     case KeyEvent.VK_SPACE -> {
                         // move sidebar selection down
                         sidebarR.prepareSelection();
-                        sidebarR.select((sidebarR.getSelection() + 1) % LIQUID_TILEMAP.size());
+                        sidebarR.select((sidebarR.getSelection() + 1) % OG_LIQUID_TILEMAP.size());
                     }
                     case KeyEvent.VK_G -> {
                         // toggle grid drawing
@@ -144,18 +165,14 @@ public class Editor extends JFrame {
                     case KeyEvent.VK_PERIOD -> {
                         // zoom in
                         int previousTileSize = WorldBuilder.TILE_SIZE;
-                        WorldBuilder.TILE_SIZE += 5;
-                        TILEMAP = OG_TILEMAP.stream().map(img -> Scalr.resize(img, WorldBuilder.TILE_SIZE, WorldBuilder.TILE_SIZE)).toList();
-                        LIQUID_TILEMAP = OG_LIQUID_TILEMAP.stream().map(img -> Scalr.resize(img, WorldBuilder.TILE_SIZE, WorldBuilder.TILE_SIZE)).toList();
-                        INTERACTABLE_TILEMAP = OG_INTERACTABLE_TILEMAP.stream().map(img -> Scalr.resize(img, WorldBuilder.TILE_SIZE, WorldBuilder.TILE_SIZE)).toList();
+                        WorldBuilder.TILE_SIZE = zoomIn(WorldBuilder.TILE_SIZE);
+                        updateTileset(zoomIn(WorldBuilder.TILE_SIZE));
                         editorPane.camera.setPosition((editorPane.camera.getPosition().x() / previousTileSize) * WorldBuilder.TILE_SIZE, (editorPane.camera.getPosition().y() / previousTileSize) * WorldBuilder.TILE_SIZE);
                     }
                     case KeyEvent.VK_COMMA -> {
                         // zoom out
-                        WorldBuilder.TILE_SIZE = Math.max(5, WorldBuilder.TILE_SIZE - 5);
-                        TILEMAP = OG_TILEMAP.stream().map(img -> Scalr.resize(img, WorldBuilder.TILE_SIZE, WorldBuilder.TILE_SIZE)).toList();
-                        LIQUID_TILEMAP = OG_LIQUID_TILEMAP.stream().map(img -> Scalr.resize(img, WorldBuilder.TILE_SIZE, WorldBuilder.TILE_SIZE)).toList();
-                        INTERACTABLE_TILEMAP = OG_INTERACTABLE_TILEMAP.stream().map(img -> Scalr.resize(img, WorldBuilder.TILE_SIZE, WorldBuilder.TILE_SIZE)).toList();
+                        WorldBuilder.TILE_SIZE = zoomOut(WorldBuilder.TILE_SIZE);
+                        updateTileset(zoomOut(WorldBuilder.TILE_SIZE));
                     }
                     case KeyEvent.VK_T -> {
                         // teleport
@@ -178,25 +195,18 @@ public class Editor extends JFrame {
                     }
                     case KeyEvent.VK_M -> {
                         // show map
-                        BufferedImage minimap = generateMinimap();
-                        createMinimapWindow(minimap);
+                        generateMinimap();
                     }
                     case KeyEvent.VK_X -> {
                         // undo
-                        if (!editorPane.recentWorldStates.isEmpty()) {
-                            editorPane.recentlyUndoneWorldStates.push(copyWorldData(WorldBuilder.INSTANCE.getWorldData()));
-                            WorldBuilder.INSTANCE.setWorldData(copyWorldData(editorPane.recentWorldStates.pop()));
-                        }
+                        editorPane.history.undo();
                     }
                     case KeyEvent.VK_Y -> {
                         // redo
-                        if (!editorPane.recentlyUndoneWorldStates.isEmpty()) {
-                            editorPane.recentWorldStates.push(copyWorldData(WorldBuilder.INSTANCE.getWorldData()));
-                            WorldBuilder.INSTANCE.setWorldData(editorPane.recentlyUndoneWorldStates.pop());
-                        }
+                        editorPane.history.redo();
                     }
                     case KeyEvent.VK_F3 -> {
-                        // toggle show position in corner
+                        // toggle position and performance statistics in the corner
                         editorPane.showPosition = !editorPane.showPosition;
                     }
                     case KeyEvent.VK_F4 -> {
@@ -207,38 +217,35 @@ public class Editor extends JFrame {
                         // open import world dialog
                         JFileChooser fileChooser = new JFileChooser();
                         fileChooser.setDialogTitle("Import world file");
-                        fileChooser.setFileFilter(jsonFileFilter());
+                        fileChooser.setFileFilter(worldFileFilter());
                         int result = fileChooser.showOpenDialog(Editor.this);
                         if (result == JFileChooser.APPROVE_OPTION) {
+                            clearImport();
                             importedWorldData = readWorldData(fileChooser.getSelectedFile());
                         }
                     }
                     case KeyEvent.VK_ENTER -> {
                         // merge imported world data into world data
-                        editorPane.recentWorldStates.push(copyWorldData(WorldBuilder.INSTANCE.getWorldData()));
-                        Map<Integer, Map<Integer, Tile>> newWorldData = WorldBuilder.INSTANCE.getWorldData();
-                        for (Map.Entry<Integer, Map<Integer, Tile>> entry : importedWorldData.entrySet()) {
-                            int columnIndex = entry.getKey() + importedWorldOffsetX;
-                            Map<Integer, Tile> currentColumn = WorldBuilder.INSTANCE.getWorldData().getOrDefault(columnIndex, new HashMap<>());
-                            for (Map.Entry<Integer, Tile> entry1 : entry.getValue().entrySet()) {
-                                int rowIndex = entry1.getKey() + importedWorldOffsetY;
-                                Tile tile = entry1.getValue();
-                                if (columnIndex >= 0 && rowIndex >= 0) {
-                                    currentColumn.put(rowIndex, tile);
-                                }
-                            }
-                            newWorldData.put(columnIndex, currentColumn);
+                        if (importedWorldData != null) {
+                            editorPane.history.begin();
+                            WorldBuilder.INSTANCE.getWorldData().merge(importedWorldData, importedWorldOffsetX, importedWorldOffsetY);
+                            editorPane.commitHistory();
+                            clearImport();
                         }
-                        WorldBuilder.INSTANCE.setWorldData(newWorldData);
-                        importedWorldData = null;
-                        importedWorldOffsetX = 0;
-                        importedWorldOffsetY = 0;
+                    }
+                    case KeyEvent.VK_F -> {
+                        // flood fill the selected layers from the hovered tile
+                        editorPane.floodFill();
+                    }
+                    case KeyEvent.VK_R -> {
+                        // reshape every tile of the world
+                        editorPane.history.begin();
+                        AutoShaper.shapeWorld(WorldBuilder.INSTANCE.getWorldData());
+                        editorPane.commitHistory();
                     }
                     case KeyEvent.VK_ESCAPE -> {
                         // remove imported world
-                        importedWorldData = null;
-                        importedWorldOffsetX = 0;
-                        importedWorldOffsetY = 0;
+                        clearImport();
                     }
                     case KeyEvent.VK_1, KeyEvent.VK_2, KeyEvent.VK_3, KeyEvent.VK_4, KeyEvent.VK_5, KeyEvent.VK_6, KeyEvent.VK_7, KeyEvent.VK_8, KeyEvent.VK_9 -> {
                         // select n-th tile group
@@ -252,86 +259,161 @@ public class Editor extends JFrame {
                     }
                     case KeyEvent.VK_J -> {
                         // save
-                        saveDialog(WorldBuilder.INSTANCE::saveWorldData, null, false, jsonFileFilter(), "Save world file", Editor.this);
+                        saveDialog(WorldBuilder.INSTANCE::saveWorldData, null, false, worldFileFilter(), "Save world file", Editor.this);
                     }
                     default -> {
-                        // add keys that respond to holding to the list
-                        activeKeys.add(e.getKeyCode());
+                        // remember keys that respond to holding, repeated presses set the same bit
+                        if (e.getKeyCode() < KEY_CODES) {
+                            heldKeys.set(e.getKeyCode());
+                        }
                     }
                 }
+                editorPane.scheduler.requestFrame();
             }
             
             public void keyReleased(KeyEvent e) {
-                activeKeys.removeIf(key -> key == e.getKeyCode());
+                if (e.getKeyCode() < KEY_CODES) {
+                    heldKeys.clear(e.getKeyCode());
+                }
+                editorPane.scheduler.requestFrame();
             }
         });
+        editorPane.scheduler.start();
     }
     
-    private static BufferedImage generateMinimap() {
-        Integer maxX = WorldBuilder.INSTANCE.getWorldData().keySet().stream().max(Integer::compareTo).orElse(null);
-        Integer maxY = WorldBuilder.INSTANCE.getWorldData().values().stream().flatMap(column -> column.keySet().stream()).max(Integer::compareTo).orElse(null);
-        
-        if (maxX == null || maxY == null) {
-            return null;
+    private void clearImport() {
+        importedWorldData = null;
+        importedWorldOffsetX = 0;
+        importedWorldOffsetY = 0;
+        editorPane.painter.getImportRenderer().getChunkCache().clear();
+        editorPane.painter.getImportRenderer().getRegionCache().clear();
+    }
+    
+    /**
+     * Renders the minimap of a snapshot of the world in the background and opens it once it is done,
+     * the progress is shown in a monitor that does not block the editor. Paged worlds are written back and rendered
+     * from a view of their backend instead.
+     */
+    private void generateMinimap() {
+        if (minimapInProgress) {
+            return;
+        }
+        WorldStore world = WorldBuilder.INSTANCE.getWorldData();
+        WorldStore snapshot;
+        if (world.isPaged()) {
+            world.markDirty(world.writeBack());
+            snapshot = world.openView();
         } else {
-            int tilePixelSize = Math.min((int) (WorldBuilder.WIDTH * 0.9) / maxX, (int) (WorldBuilder.HEIGHT * 0.8) / maxY);
-            BufferedImage map = new BufferedImage((maxX + 1) * tilePixelSize, (maxY + 1) * tilePixelSize, BufferedImage.TYPE_INT_ARGB);
-            for (Map.Entry<Integer, Map<Integer, Tile>> column : WorldBuilder.INSTANCE.getWorldData().entrySet()) {
-                for (Map.Entry<Integer, Tile> row : column.getValue().entrySet()) {
-                    Tile tile = row.getValue();
-                    Point position = new Point(column.getKey() * tilePixelSize, row.getKey() * tilePixelSize);
-                    if (tile.liquid >= 0) {
-                        map.getGraphics().drawImage(OG_LIQUID_TILEMAP.get(tile.liquid), position.x(), position.y(), tilePixelSize, tilePixelSize, null);
-                    }
-                    if (tile.block >= 0) {
-                        map.getGraphics().drawImage(OG_TILEMAP.get(tile.block), position.x(), position.y(), tilePixelSize, tilePixelSize, null);
-                    }
-                }
+            snapshot = copyWorldData(world);
+        }
+        Rectangle bounds = snapshot.getBounds();
+        if (bounds == null) {
+            return;
+        }
+        minimapInProgress = true;
+        int tilePixelSize = MinimapRenderer.tilePixelSize(bounds, (int) (WorldBuilder.WIDTH * 0.9), (int) (WorldBuilder.HEIGHT * 0.8));
+        ProgressMonitor monitor = new ProgressMonitor(this, "Generating minimap", null, 0, 1);
+        monitor.setMillisToDecideToPopup(200);
+        new MinimapRenderer(OG_TILESET).renderAsync(snapshot, tilePixelSize, (finished, total) -> SwingUtilities.invokeLater(() -> {
+            monitor.setMaximum(total);
+            monitor.setProgress(finished);
+        })).whenComplete((minimap, ex) -> SwingUtilities.invokeLater(() -> {
+            minimapInProgress = false;
+            monitor.close();
+            if (ex != null) {
+                JOptionPane.showMessageDialog(this, "Minimap could not be generated.", "Error", JOptionPane.ERROR_MESSAGE);
+            } else if (minimap != null) {
+                createMinimapWindow(minimap);
             }
-            map.getGraphics().dispose();
-            return map;
+        }));
+    }
+    
+    private static void initTileScaling() {
+        SCALE_CACHE = new TileScaleCache(OG_TILESET);
+        String prewarm = System.getProperty("worldbuilder.prewarmZoom");
+        if (prewarm != null) {
+            SCALE_CACHE.prewarm(Arrays.stream(prewarm.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray());
         }
     }
     
-    private static void loadTilemaps() {
-        load("/tiles/tile", OG_TILEMAP);
-        TILEMAP = new ArrayList<>(OG_TILEMAP);
-        load("/liquids/liquid", OG_LIQUID_TILEMAP);
-        LIQUID_TILEMAP = new ArrayList<>(OG_LIQUID_TILEMAP);
-        load("/interactables/interactable", OG_INTERACTABLE_TILEMAP);
-        INTERACTABLE_TILEMAP = new ArrayList<>(OG_INTERACTABLE_TILEMAP);
+    /**
+     * Loads the bundled tileset and records how long it took for the editor stats
+     */
+    private static Tileset loadTileset() {
+        long start = System.nanoTime();
+        Tileset tileset = Tileset.load();
+        EditorStats.INSTANCE.recordTilesetLoad(System.nanoTime() - start);
+        return tileset;
     }
     
-    private static void load(String fromPath, List<BufferedImage> to) {
-        for (int i = 0; ; i++) {
-            try {
-                InputStream stream = Editor.class.getResourceAsStream(fromPath + i + ".png");
-                to.add(ImageIO.read(stream));
-            } catch (Exception ex) {
-                return;
+    /**
+     * @return the next larger zoom level, in steps of {@value #ZOOM_STEP} pixels, or single pixels below that
+     */
+    private static int zoomIn(int tileSize) {
+        return tileSize < ZOOM_STEP ? tileSize + 1 : tileSize + ZOOM_STEP;
+    }
+    
+    /**
+     * @return the next smaller zoom level, down to single pixel tiles at which a whole world fits onto the screen
+     */
+    private static int zoomOut(int tileSize) {
+        return tileSize <= ZOOM_STEP ? Math.max(1, tileSize - 1) : tileSize - ZOOM_STEP;
+    }
+    
+    /**
+     * Switches to the tileset for the current zoom level as soon as it is scaled, and starts scaling the next one.
+     * If scaling fails the current tileset stays stretched until the zoom level is requested again.
+     *
+     * @param nextTileSize zoom level that is likely to be requested next
+     */
+    private void updateTileset(int nextTileSize) {
+        int tileSize = WorldBuilder.TILE_SIZE;
+        SCALE_CACHE.request(tileSize).thenAccept(tileset -> SwingUtilities.invokeLater(() -> {
+            if (WorldBuilder.TILE_SIZE == tileSize) {
+                TILESET = tileset;
+                editorPane.scheduler.requestFrame();
             }
-        }
+        }));
+        SCALE_CACHE.request(nextTileSize);
     }
     
     @Override
     public void dispose() {
+        editorPane.scheduler.stop();
+        // a new editor with its own history is opened if closing is cancelled
+        editorPane.history.close();
         super.dispose();
-        if (WorldBuilder.INSTANCE.getWorldData().equals(WorldBuilder.INSTANCE.getLastSavedWorldData())) {
+        if (!WorldBuilder.INSTANCE.hasUnsavedChanges()) {
             System.exit(0);
+        } else if (WorldBuilder.INSTANCE.getWorldData().isPaged()) {
+            // paged worlds are edited in their region files, chunks that were evicted are already written back, so
+            // the changes cannot be discarded and are saved in place
+            exitOnceSaved(WorldBuilder.INSTANCE.getWorldFile().toFile());
         } else {
-            saveDialog((file) -> {
-                int success = WorldBuilder.INSTANCE.saveWorldData(file);
-                System.exit(success);
-            }, Editor::new, true, jsonFileFilter(), "Save world file", Editor.this);
+            saveDialog(Editor::exitOnceSaved, Editor::new, true, worldFileFilter(), "Save world file", Editor.this);
         }
     }
     
+    /**
+     * Saves the world and exits once it is written. If it could not be written, the editor is opened again behind the
+     * error message instead, so that nothing is lost and saving can be retried.
+     */
+    private static void exitOnceSaved(File file) {
+        // the editor is gone, so wait for the save here, the saver thread would not keep the application alive
+        boolean saved = WorldBuilder.INSTANCE.saveWorldData(file).handle((result, ex) -> ex == null).join();
+        if (saved) {
+            System.exit(0);
+        }
+        new Editor();
+    }
+    
     public class EditorPane extends JPanel {
         
         private final Camera camera = new Camera(minimumX(), minimumY(), 2);
+        private final FramePainter painter = new FramePainter();
         
-        private final Stack<Map<Integer, Map<Integer, Tile>>> recentWorldStates = new Stack<>();
-        private final Stack<Map<Integer, Map<Integer, Tile>>> recentlyUndoneWorldStates = new Stack<>();
+        private final UndoJournal history = new UndoJournal(WorldBuilder.INSTANCE.getWorldData());
+        private final PaintStroke stroke = new PaintStroke(WorldBuilder.INSTANCE.getWorldData());
         
         private Point mousePosition;
         private boolean mouseInPane = true;
@@ -339,12 +421,24 @@ public class Editor extends JFrame {
         private int chunkX = -1;
         private int chunkY = -1;
         
+        /**
+         * Corner of the rectangle being dragged out while control is held, {@code null} if there is none
+         */
+        private Point selectionStart = null;
+        
         private boolean drawGrid = true;
         private boolean showPosition = false;
         private boolean showTileIndices = false;
         
         private long ticks = 0;
         
+        /**
+         * Whether the camera moved since the last tick
+         */
+        private boolean cameraMoved = false;
+        
+        private final FrameScheduler scheduler = new FrameScheduler(this::updateCamera, this::tick, this::repaint, this::isActive);
+        
         public EditorPane() {
             addMouseWheelListener(new MouseInputAdapter() {
                 public void mouseWheelMoved(MouseWheelEvent e) {
@@ -354,6 +448,8 @@ public class Editor extends JFrame {
             addMouseMotionListener(new MouseMotionAdapter() {
                 public void mouseMoved(MouseEvent e) {
                     mousePosition = new Point(e.getPoint()).plus(0, WorldBuilder.TILE_SIZE);
+                    updateHover();
+                    scheduler.requestFrame();
                 }
                 
                 public void mouseDragged(MouseEvent e) {
@@ -362,20 +458,39 @@ public class Editor extends JFrame {
             });
             addMouseListener(new MouseInputAdapter() {
                 public void mousePressed(MouseEvent e) {
-                    addUndoCheckpoint();
+                    history.begin();
                     activeMouseButton = e.getButton();
+                    if (e.isControlDown() && chunkX >= 0 && chunkY >= 0) {
+                        selectionStart = new Point(chunkX, chunkY);
+                    } else if (activeMouseButton == 1) {
+                        stroke.beginPaint(toolbar.getSelection(), sidebarR.getSelection(), sidebarL.getSelection());
+                    } else if (activeMouseButton == 3) {
+                        stroke.beginErase();
+                    }
+                    scheduler.requestFrame();
                 }
                 
                 public void mouseReleased(MouseEvent e) {
+                    if (selectionStart != null) {
+                        editRectangle(selection(), activeMouseButton);
+                        selectionStart = null;
+                    }
+                    if (stroke.isActive()) {
+                        stroke.end(inferOrientation);
+                    }
                     activeMouseButton = -1;
+                    commitHistory();
+                    scheduler.requestFrame();
                 }
                 
                 public void mouseEntered(MouseEvent e) {
                     mouseInPane = true;
+                    scheduler.requestFrame();
                 }
                 
                 public void mouseExited(MouseEvent e) {
                     mouseInPane = false;
+                    scheduler.requestFrame();
                 }
             });
         }
@@ -383,121 +498,75 @@ public class Editor extends JFrame {
         @Override
         public void paint(Graphics g) {
             super.paint(g);
-            g.setFont(g.getFont().deriveFont(16f).deriveFont(Font.BOLD));
-            g.setColor(Color.BLACK);
-            if (drawGrid) {
-                // DRAW VERTICAL GRID LINES
-                for (int i = 0; i <= WorldBuilder.WIDTH / WorldBuilder.TILE_SIZE; i++) {
-                    int offset = camera.getPosition().x() % WorldBuilder.TILE_SIZE;
-                    int x = i * WorldBuilder.TILE_SIZE - offset;
-                    g.drawLine(x, 0, x, WorldBuilder.HEIGHT);
-                }
-                // DRAW HORIZONTAL GRID LINES
-                for (int i = 0; i <= WorldBuilder.HEIGHT / WorldBuilder.TILE_SIZE; i++) {
-                    int offset = camera.getPosition().y() % WorldBuilder.TILE_SIZE;
-                    int y = i * WorldBuilder.TILE_SIZE - offset;
-                    g.drawLine(0, y, WorldBuilder.WIDTH, y);
-                }
-            }
-            // DRAW TILES
-            int offsetX = camera.getPosition().x() / WorldBuilder.TILE_SIZE;
-            int offsetY = camera.getPosition().y() / WorldBuilder.TILE_SIZE;
-            for (int i = 0; i <= WorldBuilder.WIDTH / WorldBuilder.TILE_SIZE + offsetX; i++) {
-                for (int j = 0; j <= WorldBuilder.HEIGHT / WorldBuilder.TILE_SIZE + offsetY; j++) {
-                    int x = (i + (WorldBuilder.WIDTH / 2) / WorldBuilder.TILE_SIZE + 1) * WorldBuilder.TILE_SIZE - camera.getPosition().x();
-                    int y = (j + (WorldBuilder.HEIGHT / 2) / WorldBuilder.TILE_SIZE) * WorldBuilder.TILE_SIZE - camera.getPosition().y();
-                    boolean hovered = mouseInPane && mousePosition != null && mousePosition.x() >= x && mousePosition.x() <= x + WorldBuilder.TILE_SIZE && mousePosition.y() >= y + WorldBuilder.TILE_SIZE && mousePosition.y() <= y + 2 * WorldBuilder.TILE_SIZE;
-                    BufferedImage blockImage = null, liquidImage = null, interactableImage = null;
-                    Map<Integer, Tile> column = WorldBuilder.INSTANCE.getWorldData().get(i);
-                    if (column != null) {
-                        Tile tile = column.get(j);
-                        if (tile != null) {
-                            if (tile.block >= 0) {
-                                blockImage = TILEMAP.get(tile.block);
-                            }
-                            if (tile.liquid >= 0) {
-                                liquidImage = LIQUID_TILEMAP.get(tile.liquid);
-                            }
-                            if (tile.interactable >= 0) {
-                                interactableImage = INTERACTABLE_TILEMAP.get(tile.interactable);
-                            }
-                        }
-                    }
-                    if (liquidImage != null) {
-                        g.drawImage(liquidImage, x, y, null);
-                    }
-                    if (blockImage != null) {
-                        g.drawImage(blockImage, x, y, null);
-                    }
-                    if (interactableImage != null) {
-                        g.drawImage(interactableImage, x, y, null);
-                    }
-                    if (hovered) {
-                        if (toolbar.getSelection() >= 0) {
-                            g.drawImage(transparentImage(TILEMAP.get(toolbar.getSelection()), 0.35f), x, y, null);
-                        }
-                        if (sidebarR.getSelection() >= 0) {
-                            g.drawImage(transparentImage(LIQUID_TILEMAP.get(sidebarR.getSelection()), 0.35f), x, y, null);
-                        }
-                        if (sidebarL.getSelection() >= 0) {
-                            g.drawImage(transparentImage(INTERACTABLE_TILEMAP.get(sidebarL.getSelection()), 0.35f), x, y, null);
-                        }
-                        chunkX = i;
-                        chunkY = j;
-                    }
-                    if (importedWorldData != null) {
-                        // draw imported map
-                        BufferedImage importedTileImage = null, importedLiquidImage = null, importedInteractableImage = null;
-                        Map<Integer, Tile> importedColumn = importedWorldData.get(i - importedWorldOffsetX);
-                        if (importedColumn != null) {
-                            Tile importedTile = importedColumn.get(j - importedWorldOffsetY);
-                            if (importedTile != null) {
-                                if (importedTile.block >= 0) {
-                                    importedTileImage = TILEMAP.get(importedTile.block);
-                                }
-                                if (importedTile.liquid >= 0) {
-                                    importedLiquidImage = LIQUID_TILEMAP.get(importedTile.liquid);
-                                }
-                                if (importedTile.interactable >= 0) {
-                                    importedInteractableImage = INTERACTABLE_TILEMAP.get(importedTile.interactable);
-                                }
-                            }
-                        }
-                        if (importedLiquidImage != null) {
-                            g.drawImage(transparentImage(importedLiquidImage, 0.5f), x, y, null);
-                        }
-                        if (importedTileImage != null) {
-                            g.drawImage(transparentImage(importedTileImage, 0.5f), x, y, null);
-                        }
-                        if (importedInteractableImage != null) {
-                            g.drawImage(transparentImage(importedInteractableImage, 0.5f), x, y, null);
-                        }
-                    }
-                    if (showTileIndices) {
-                        g.setFont(g.getFont().deriveFont(Font.BOLD, 16f * (float) WorldBuilder.TILE_SIZE / (float) WorldBuilder.OG_TILE_SIZE));
-                        String string = i + " | " + j;
-                        int stringX = x + (WorldBuilder.TILE_SIZE - g.getFontMetrics().stringWidth(string)) / 2;
-                        int stringY = y + WorldBuilder.TILE_SIZE - (WorldBuilder.TILE_SIZE - g.getFontMetrics().getHeight()) / 2;
-                        g.setColor(Color.BLUE);
-                        g.drawString(i + " | " + j, stringX, stringY);
-                    }
-                }
-            }
+            Viewport viewport = new Viewport(camera, WorldBuilder.TILE_SIZE);
+            updateHover();
+            boolean hovering = mouseInPane && mousePosition != null && chunkX >= 0 && chunkY >= 0;
+            List<String> overlay = null;
             if (showPosition) {
-                g.setColor(Color.RED);
-                g.setFont(g.getFont().deriveFont(Font.BOLD, 16f));
-                g.drawString("X: " + camera.getPosition().x(), 5, 20);
-                g.drawString("Y: " + camera.getPosition().y(), 5, 40);
+                overlay = new ArrayList<>();
+                overlay.add("X: " + camera.getPosition().x());
+                overlay.add("Y: " + camera.getPosition().y());
+                overlay.addAll(EditorStats.INSTANCE.overlayLines());
+            }
+            long start = System.nanoTime();
+            EditorEvents.PaintEvent event = new EditorEvents.PaintEvent();
+            event.begin();
+            painter.paint(g, new FramePainter.Frame(viewport, WorldBuilder.INSTANCE.getWorldData(), TILESET, drawGrid,
+                    hovering ? new Point(chunkX, chunkY) : null, toolbar.getSelection(), sidebarR.getSelection(), sidebarL.getSelection(),
+                    selectionStart != null ? selection() : null, activeMouseButton == 3,
+                    importedWorldData, importedWorldOffsetX, importedWorldOffsetY, showTileIndices, overlay));
+            event.end();
+            WorldRenderer renderer = painter.getRenderer();
+            EditorStats.INSTANCE.recordFrame(System.nanoTime() - start, renderer, SCALE_CACHE, history);
+            if (event.shouldCommit()) {
+                event.tileSize = viewport.tileSize();
+                event.cellsVisited = renderer.getCellsVisited();
+                event.tilesDrawn = renderer.getTilesDrawn();
+                event.commit();
             }
-            repaint();
         }
         
-        @Override
-        public void repaint() {
-            super.repaint();
-            updateCamera();
+        /**
+         * Runs one fixed simulation step
+         *
+         * @return whether the editor needs to be redrawn
+         */
+        private boolean tick() {
+            if (cameraMoved || ticks == 0) {
+                cameraMoved = false;
+                prefetchChunks();
+            }
+            updateHover();
             checkClicks();
             ticks++;
+            return activeMouseButton != -1;
+        }
+        
+        /**
+         * Lets a paged world start reading the chunks around the visible ones, so they are in memory by the time the
+         * camera reaches them
+         */
+        private void prefetchChunks() {
+            Viewport viewport = new Viewport(camera, WorldBuilder.TILE_SIZE);
+            WorldBuilder.INSTANCE.getWorldData().prefetch(
+                    (viewport.minColumn() >> Chunk.SHIFT) - PREFETCH_MARGIN, (viewport.minRow() >> Chunk.SHIFT) - PREFETCH_MARGIN,
+                    (viewport.maxColumn() >> Chunk.SHIFT) + PREFETCH_MARGIN, (viewport.maxRow() >> Chunk.SHIFT) + PREFETCH_MARGIN);
+        }
+        
+        private boolean isActive() {
+            return !heldKeys.isEmpty() || activeMouseButton != -1;
+        }
+        
+        private void updateHover() {
+            if (mouseInPane && mousePosition != null) {
+                Viewport viewport = new Viewport(camera, WorldBuilder.TILE_SIZE);
+                int hoveredX = viewport.columnAt(mousePosition.x());
+                int hoveredY = viewport.rowAt(mousePosition.y() - WorldBuilder.TILE_SIZE);
+                if (hoveredX >= 0 && hoveredY >= 0) {
+                    chunkX = hoveredX;
+                    chunkY = hoveredY;
+                }
+            }
         }
         
         private int minimumX() {
@@ -508,90 +577,134 @@ public class Editor extends JFrame {
             return (WorldBuilder.HEIGHT + WorldBuilder.TILE_SIZE) / 2 - 87;
         }
         
-        private boolean canMoveLeft(int speed) {
-            return camera.getPosition().x() - speed >= minimumX() - 2;
+        private boolean canMoveLeft(double distance) {
+            return camera.getPosition().x() - distance >= minimumX() - 2;
         }
         
-        private boolean canMoveUp(int speed) {
-            return camera.getPosition().y() - speed >= minimumY() - 2;
+        private boolean canMoveUp(double distance) {
+            return camera.getPosition().y() - distance >= minimumY() - 2;
         }
         
-        private void checkClicks() {
-            if (chunkX >= 0 && chunkY >= 0) {
-                switch (activeMouseButton) {
-                    case 1 -> { // left click
-                        Map<Integer, Tile> column = WorldBuilder.INSTANCE.getWorldData().getOrDefault(chunkX, new HashMap<>());
-                        Tile current = column.get(chunkY);
-                        column.put(chunkY, new Tile(
-                                toolbar.getSelection() >= 0 ? toolbar.getSelection() : (current == null ? -1 : current.block),
-                                sidebarR.getSelection() >= 0 ? sidebarR.getSelection() : (current == null ? -1 : current.liquid),
-                                sidebarL.getSelection() >= 0 ? sidebarL.getSelection() : (current == null ? -1 : current.interactable)
-                        ));
-                        WorldBuilder.INSTANCE.getWorldData().put(chunkX, column);
-                        if (inferOrientation) {
-                            WorldBuilder.INSTANCE.autoShapeChunk(chunkX, chunkY, false);
-                        }
-                    }
-                    case 2 -> { // middle click
-                        Map<Integer, Tile> column = WorldBuilder.INSTANCE.getWorldData().get(chunkX);
-                        if (column != null) {
-                            Tile tile = column.get(chunkY);
-                            if (tile != null) {
-                                if (tile.block >= 0) {
-                                    toolbar.prepareSelection();
-                                    toolbar.select(tile.block);
-                                }
-                                if (tile.liquid >= 0) {
-                                    sidebarR.prepareSelection();
-                                    sidebarR.select(tile.liquid);
-                                }
-                            }
-                        }
-                    }
-                    case 3 -> { // right click
-                        Map<Integer, Tile> column = WorldBuilder.INSTANCE.getWorldData().get(chunkX);
-                        if (column != null) {
-                            column.remove(chunkY);
-                            if (column.isEmpty()) {
-                                WorldBuilder.INSTANCE.getWorldData().remove(chunkX);
-                            } else {
-                                WorldBuilder.INSTANCE.getWorldData().put(chunkX, column);
-                            }
-                        }
-                        if (inferOrientation) {
-                            WorldBuilder.INSTANCE.autoShapeChunk(chunkX, chunkY, false);
-                        }
+        /**
+         * @return the rectangle between the corner where the drag started and the hovered tile
+         */
+        private Rectangle selection() {
+            return new Rectangle(Math.min(selectionStart.x(), chunkX), Math.min(selectionStart.y(), chunkY),
+                    Math.abs(selectionStart.x() - chunkX) + 1, Math.abs(selectionStart.y() - chunkY) + 1);
+        }
+        
+        /**
+         * Fills the rectangle with the selected tiles on a left drag, or clears it on a right drag
+         */
+        private void editRectangle(Rectangle area, int button) {
+            WorldStore world = WorldBuilder.INSTANCE.getWorldData();
+            Rectangle changed = switch (button) {
+                case 1 -> BulkEdit.fillRectangle(world, area, toolbar.getSelection(), sidebarR.getSelection(), sidebarL.getSelection());
+                case 3 -> BulkEdit.clearRectangle(world, area);
+                default -> null;
+            };
+            if (changed != null && inferOrientation) {
+                AutoShaper.shapeArea(world, BulkEdit.withNeighbours(changed));
+            }
+        }
+        
+        /**
+         * Flood fills every layer that has a selection, starting at the hovered tile, as one undo step.
+         * Fills stay within the bounds of the world, or within the visible area for paged worlds, whose bounds are
+         * expensive to compute.
+         */
+        private void floodFill() {
+            if (chunkX < 0 || chunkY < 0) {
+                return;
+            }
+            WorldStore world = WorldBuilder.INSTANCE.getWorldData();
+            Rectangle limit;
+            if (world.isPaged()) {
+                Viewport viewport = new Viewport(camera, WorldBuilder.TILE_SIZE);
+                limit = new Rectangle(viewport.minColumn(), viewport.minRow(), viewport.maxColumn() - viewport.minColumn() + 1, viewport.maxRow() - viewport.minRow() + 1);
+            } else {
+                limit = world.getBounds();
+                limit = limit == null ? new Rectangle(chunkX, chunkY, 1, 1) : limit.union(new Rectangle(chunkX, chunkY, 1, 1));
+            }
+            history.begin();
+            Rectangle changed = null;
+            int[] selections = {toolbar.getSelection(), sidebarR.getSelection(), sidebarL.getSelection()};
+            for (BulkEdit.Layer layer : BulkEdit.Layer.values()) {
+                if (selections[layer.ordinal()] >= 0) {
+                    Rectangle filled = BulkEdit.floodFill(world, chunkX, chunkY, layer, selections[layer.ordinal()], limit, inferOrientation);
+                    if (filled != null) {
+                        changed = changed == null ? filled : changed.union(filled);
                     }
                 }
             }
+            if (changed != null && inferOrientation) {
+                AutoShaper.shapeArea(world, BulkEdit.withNeighbours(changed));
+            }
+            commitHistory();
         }
         
-        private void updateCamera() {
-            if (activeKeys != null && camera != null) {
-                int speed = camera.getSpeed();
-                if (activeKeys.contains(KeyEvent.VK_SHIFT)) {
-                    speed = Camera.MIN_SPEED;
-                } else if (activeKeys.contains(KeyEvent.VK_ALT)) {
-                    speed = Camera.MAX_SPEED;
-                }
-                if (activeKeys.contains(KeyEvent.VK_A) && canMoveLeft(speed)) {
-                    camera.moveX(-speed);
-                } else if (activeKeys.contains(KeyEvent.VK_D)) {
-                    camera.moveX(speed);
+        /**
+         * Closes the current undo step, and tells the user if it was too large to be kept
+         */
+        private void commitHistory() {
+            if (!history.commit()) {
+                JOptionPane.showMessageDialog(Editor.this, "This edit was too large to be undone, the undo history was cleared.",
+                        "Undo", JOptionPane.WARNING_MESSAGE);
+            }
+        }
+        
+        private void checkClicks() {
+            if (selectionStart != null || chunkX < 0 || chunkY < 0) {
+                return;
+            }
+            if (stroke.isActive()) {
+                // left or right click
+                stroke.moveTo(chunkX, chunkY);
+                stroke.flush(inferOrientation);
+            } else if (activeMouseButton == 2) { // middle click
+                WorldStore world = WorldBuilder.INSTANCE.getWorldData();
+                int block = world.getBlock(chunkX, chunkY);
+                int liquid = world.getLiquid(chunkX, chunkY);
+                if (block >= 0) {
+                    toolbar.prepareSelection();
+                    toolbar.select(block);
                 }
-                if (activeKeys.contains(KeyEvent.VK_W) && canMoveUp(speed)) {
-                    camera.moveY(-speed);
-                } else if (activeKeys.contains(KeyEvent.VK_S)) {
-                    camera.moveY(speed);
+                if (liquid >= 0) {
+                    sidebarR.prepareSelection();
+                    sidebarR.select(liquid);
                 }
             }
         }
         
-        private void addUndoCheckpoint() {
-            Map<Integer, Map<Integer, Tile>> currentWorld = copyWorldData(WorldBuilder.INSTANCE.getWorldData());
-            if (recentWorldStates.isEmpty() || !currentWorld.equals(recentWorldStates.peek())) {
-                recentWorldStates.push(currentWorld);
+        /**
+         * Moves the camera by the time that passed since the last call, for as long as movement keys are held
+         *
+         * @return whether the camera moved by at least one pixel
+         */
+        private boolean updateCamera(long elapsedNanos) {
+            int speed = camera.getSpeed();
+            if (heldKeys.get(KeyEvent.VK_SHIFT)) {
+                speed = Camera.MIN_SPEED;
+            } else if (heldKeys.get(KeyEvent.VK_ALT)) {
+                speed = Camera.MAX_SPEED;
+            }
+            double distance = Camera.distance(speed, elapsedNanos);
+            int directionX = 0, directionY = 0;
+            if (heldKeys.get(KeyEvent.VK_A) && canMoveLeft(distance)) {
+                directionX = -1;
+            } else if (heldKeys.get(KeyEvent.VK_D)) {
+                directionX = 1;
+            }
+            if (heldKeys.get(KeyEvent.VK_W) && canMoveUp(distance)) {
+                directionY = -1;
+            } else if (heldKeys.get(KeyEvent.VK_S)) {
+                directionY = 1;
             }
+            Point previous = camera.getPosition();
+            camera.move(directionX, directionY, speed, elapsedNanos);
+            boolean moved = !camera.getPosition().equals(previous);
+            cameraMoved |= moved;
+            return moved;
         }
         
     }
@@ -601,6 +714,7 @@ public class Editor extends JFrame {
         public static final int MARGIN = 15;
         
         private final List<BufferedImage> resources;
+        private final List<ToolbarElement> elements = new ArrayList<>();
         private final boolean horizontal;
         private final boolean autoSelectable;
         
@@ -624,6 +738,7 @@ public class Editor extends JFrame {
                     }
                 });
                 image.setVisible(true);
+                elements.add(image);
                 content.add(image);
             }
             setHorizontalScrollBarPolicy(horizontal ? HORIZONTAL_SCROLLBAR_ALWAYS : HORIZONTAL_SCROLLBAR_NEVER);
@@ -637,7 +752,14 @@ public class Editor extends JFrame {
         }
         
         public final void select(int selection) {
+            int previousSelection = this.selection;
             this.selection = Math.min(resources.size() - 1, selection);
+            if (previousSelection >= 0) {
+                elements.get(previousSelection).refresh();
+            }
+            if (this.selection >= 0) {
+                elements.get(this.selection).refresh();
+            }
             if (selection >= 0) {
                 JScrollBar scrollBar = horizontal ? getHorizontalScrollBar() : getVerticalScrollBar();
                 int min = scrollBar.getMinimum();
@@ -663,6 +785,13 @@ public class Editor extends JFrame {
             }
         }
         
+        /**
+         * Updates the appearance of all elements, e.g. after the orientation inferring mode changed
+         */
+        public final void refresh() {
+            elements.forEach(ToolbarElement::refresh);
+        }
+        
         public final void toggle() {
             this.setVisible(!this.isVisible());
             if (this.isVisible()) {
@@ -676,46 +805,42 @@ public class Editor extends JFrame {
         public class ToolbarElement extends JLabel {
             
             private final Toolbar parent;
-            private final BufferedImage image;
+            private final ImageIcon icon;
+            private final ImageIcon fadedIcon;
             private final int index;
             
-            private boolean selected = true;
             private boolean hovered = false;
             
             public ToolbarElement(Toolbar parent, BufferedImage image, int index) {
                 this.parent = parent;
-                this.image = image;
+                this.icon = new ImageIcon(image);
+                this.fadedIcon = new ImageIcon(transparentImage(image, 0.35f));
                 this.index = index;
-                setBorder(new EmptyBorder(MARGIN, MARGIN, MARGIN, MARGIN));
-                setIcon(new ImageIcon(this.image));
+                refresh();
                 addMouseListener(new MouseAdapter() {
                     public void mouseEntered(MouseEvent e) {
                         hovered = true;
+                        refresh();
                     }
                     
                     public void mouseExited(MouseEvent e) {
                         hovered = false;
+                        refresh();
                     }
                 });
             }
             
-            @Override
-            public void paint(Graphics g) {
-                super.paint(g);
-                if (selected) {
-                    setIcon(new ImageIcon(this.image));
+            /**
+             * Updates icon and border to the current selection and hover state, Swing repaints the element if they changed
+             */
+            public void refresh() {
+                if (parent.selection == index) {
+                    setIcon(icon);
                     setBorder(new MatteBorder(MARGIN, MARGIN, MARGIN, MARGIN, new Color(inferOrientation && parent.autoSelectable ? 0xdb2137 : 0x4287f5)));
                 } else {
-                    setIcon(new ImageIcon(hovered ? this.image : transparentImage(this.image, 0.35f)));
+                    setIcon(hovered ? icon : fadedIcon);
                     setBorder(new EmptyBorder(MARGIN, MARGIN, MARGIN, MARGIN));
                 }
-                repaint();
-            }
-            
-            @Override
-            public void repaint() {
-                super.repaint();
-                selected = (parent != null && parent.selection == index);
             }
             
         }
@@ -0,0 +1,101 @@
+package lethalhabit.worldbuilder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder events of the slow operations of the editor. They cost next to nothing unless a recording is
+ * running, e.g. one started with {@code -XX:StartFlightRecording=filename=session.jfr}, and let slow sessions be
+ * examined afterwards in JDK Mission Control alongside garbage collections and thread activity.
+ */
+public final class EditorEvents {
+    
+    private static final String CATEGORY = "Lethal Habit World Builder";
+    
+    private EditorEvents() {
+    }
+    
+    @Name("lethalhabit.worldbuilder.Paint")
+    @Label("Paint")
+    @Category(CATEGORY)
+    @Description("One frame of the editor")
+    public static final class PaintEvent extends Event {
+        
+        @Label("Tile Size")
+        public int tileSize;
+        
+        @Label("Cells Visited")
+        public long cellsVisited;
+        
+        @Label("Tiles Drawn")
+        public long tilesDrawn;
+        
+    }
+    
+    @Name("lethalhabit.worldbuilder.Save")
+    @Label("Save")
+    @Category(CATEGORY)
+    @Description("Writing a world to its file, or flushing a paged world")
+    public static final class SaveEvent extends Event {
+        
+        @Label("File")
+        public String file;
+        
+        @Label("Changed Chunks")
+        @Description("Chunks updated in place, -1 if the whole file was written")
+        public int changedChunks = -1;
+        
+    }
+    
+    @Name("lethalhabit.worldbuilder.Load")
+    @Label("Load")
+    @Category(CATEGORY)
+    @Description("Reading a world file")
+    public static final class LoadEvent extends Event {
+        
+        @Label("File")
+        public String file;
+        
+        @Label("Format")
+        public String format;
+        
+        @Label("Tiles")
+        public long tiles;
+        
+    }
+    
+    @Name("lethalhabit.worldbuilder.AutoShape")
+    @Label("Auto Shape")
+    @Category(CATEGORY)
+    @Description("Reshaping an area, or the cells around a paint stroke")
+    public static final class AutoShapeEvent extends Event {
+        
+        @Label("Cells")
+        @Description("Cells the shape was computed for")
+        public long cells;
+        
+        @Label("Changed")
+        public int changed;
+        
+    }
+    
+    @Name("lethalhabit.worldbuilder.Minimap")
+    @Label("Minimap")
+    @Category(CATEGORY)
+    @Description("Rendering a minimap")
+    public static final class MinimapEvent extends Event {
+        
+        @Label("Tile Pixel Size")
+        public int tilePixelSize;
+        
+        @Label("Image Size")
+        @DataAmount
+        public long imageSize;
+        
+    }
+    
+}
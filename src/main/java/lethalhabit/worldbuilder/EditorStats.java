@@ -0,0 +1,258 @@
+package lethalhabit.worldbuilder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the performance counters of the editor for the F3 overlay and for JMX.
+ * Frames are recorded on the event dispatch thread, saves and loads on whatever thread runs them, and the counters can
+ * be read from any thread.
+ */
+public final class EditorStats implements EditorStatsMBean {
+    
+    public static final String OBJECT_NAME = "lethalhabit.worldbuilder:type=EditorStats";
+    
+    public static final EditorStats INSTANCE = new EditorStats();
+    
+    /**
+     * Number of most recent frames the percentiles are computed from
+     */
+    private static final int SAMPLES = 240;
+    
+    /**
+     * Longer gaps between two frames mean that the editor was idle in between, they are not counted as frame times
+     */
+    private static final long MAX_FRAME_GAP_NANOS = 250_000_000L;
+    
+    private final Samples frameTimes = new Samples(SAMPLES);
+    private final Samples paintTimes = new Samples(SAMPLES);
+    private long lastFrameEnd = 0;
+    
+    private volatile long paintNanos = 0;
+    private volatile long cellsVisited = 0;
+    private volatile long tilesDrawn = 0;
+    private volatile double chunkCacheHitRate = Double.NaN;
+    private volatile double zoomCacheHitRate = Double.NaN;
+    private volatile long undoMemory = 0;
+    private volatile long lastSaveNanos = -1;
+    private volatile long lastLoadNanos = -1;
+    private volatile long tilesetLoadNanos = -1;
+    private final AtomicLong saves = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    
+    private EditorStats() {
+    }
+    
+    /**
+     * Publishes the counters over JMX, e.g. to be watched in JConsole
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException ex) {
+            System.err.println("Editor statistics are not available over JMX: " + ex.getMessage());
+        }
+    }
+    
+    /**
+     * Records a frame that has just been painted
+     *
+     * @param paintNanos time it took to paint the frame
+     */
+    public void recordFrame(long paintNanos, WorldRenderer renderer, TileScaleCache zoomCache, UndoJournal history) {
+        long now = System.nanoTime();
+        if (lastFrameEnd != 0 && now - lastFrameEnd <= MAX_FRAME_GAP_NANOS) {
+            frameTimes.add(now - lastFrameEnd);
+        }
+        lastFrameEnd = now;
+        paintTimes.add(paintNanos);
+        this.paintNanos = paintNanos;
+        this.cellsVisited = renderer.getCellsVisited();
+        this.tilesDrawn = renderer.getTilesDrawn();
+        ChunkImageCache chunkCache = renderer.getChunkCache();
+        RegionImageCache regionCache = renderer.getRegionCache();
+        this.chunkCacheHitRate = hitRate(chunkCache.getHits() + regionCache.getHits(), chunkCache.getMisses() + regionCache.getMisses());
+        if (zoomCache != null) {
+            this.zoomCacheHitRate = hitRate(zoomCache.getHits(), zoomCache.getMisses());
+        }
+        this.undoMemory = history.getMemoryUsage();
+    }
+    
+    public void recordSave(long nanos) {
+        lastSaveNanos = nanos;
+        saves.incrementAndGet();
+    }
+    
+    public void recordLoad(long nanos) {
+        lastLoadNanos = nanos;
+        loads.incrementAndGet();
+    }
+    
+    public void recordTilesetLoad(long nanos) {
+        tilesetLoadNanos = nanos;
+    }
+    
+    private static double hitRate(long hits, long misses) {
+        return hits + misses == 0 ? Double.NaN : (double) hits / (hits + misses);
+    }
+    
+    private static double millis(long nanos) {
+        return nanos < 0 ? Double.NaN : nanos / 1e6;
+    }
+    
+    /**
+     * @return the lines of the F3 overlay that describe performance
+     */
+    public List<String> overlayLines() {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("Frame: %.1f / %.1f / %.1f ms (p50 / p95 / p99)", getFrameTimeP50Millis(), getFrameTimeP95Millis(), getFrameTimeP99Millis()));
+        lines.add(String.format("Paint: %.2f ms (p95 %.2f ms)", getPaintTimeMillis(), getPaintTimeP95Millis()));
+        lines.add(String.format("Cells visited: %,d, tiles drawn: %,d", cellsVisited, tilesDrawn));
+        lines.add(String.format("Chunk cache hits: %.1f %%, zoom cache hits: %.1f %%", chunkCacheHitRate * 100, zoomCacheHitRate * 100));
+        lines.add(String.format("Last save: %.0f ms, last load: %.0f ms, tileset load: %.0f ms", getLastSaveMillis(), getLastLoadMillis(), getTilesetLoadMillis()));
+        lines.add(String.format("Undo: %.1f MB, world: %,d tiles in %.1f MB", undoMemory / 1048576.0, getWorldTileCount(), getWorldMemoryBytes() / 1048576.0));
+        lines.add(String.format("Heap: %,d / %,d MB", getHeapUsedBytes() >> 20, getHeapMaxBytes() >> 20));
+        return lines;
+    }
+    
+    @Override
+    public double getFrameTimeP50Millis() {
+        return millis(frameTimes.percentile(0.5));
+    }
+    
+    @Override
+    public double getFrameTimeP95Millis() {
+        return millis(frameTimes.percentile(0.95));
+    }
+    
+    @Override
+    public double getFrameTimeP99Millis() {
+        return millis(frameTimes.percentile(0.99));
+    }
+    
+    @Override
+    public double getPaintTimeMillis() {
+        return millis(paintNanos);
+    }
+    
+    @Override
+    public double getPaintTimeP95Millis() {
+        return millis(paintTimes.percentile(0.95));
+    }
+    
+    @Override
+    public long getCellsVisited() {
+        return cellsVisited;
+    }
+    
+    @Override
+    public long getTilesDrawn() {
+        return tilesDrawn;
+    }
+    
+    @Override
+    public double getChunkCacheHitRate() {
+        return chunkCacheHitRate;
+    }
+    
+    @Override
+    public double getZoomCacheHitRate() {
+        return zoomCacheHitRate;
+    }
+    
+    @Override
+    public double getLastSaveMillis() {
+        return millis(lastSaveNanos);
+    }
+    
+    @Override
+    public double getLastLoadMillis() {
+        return millis(lastLoadNanos);
+    }
+    
+    @Override
+    public double getTilesetLoadMillis() {
+        return millis(tilesetLoadNanos);
+    }
+    
+    @Override
+    public long getSaveCount() {
+        return saves.get();
+    }
+    
+    @Override
+    public long getLoadCount() {
+        return loads.get();
+    }
+    
+    @Override
+    public long getUndoMemoryBytes() {
+        return undoMemory;
+    }
+    
+    @Override
+    public long getWorldTileCount() {
+        return WorldBuilder.INSTANCE.getWorldData().getTileCount();
+    }
+    
+    @Override
+    public long getWorldMemoryBytes() {
+        return WorldBuilder.INSTANCE.getWorldData().getMemoryUsage();
+    }
+    
+    @Override
+    public long getHeapUsedBytes() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+    
+    @Override
+    public long getHeapMaxBytes() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        return heap.getMax() >= 0 ? heap.getMax() : heap.getCommitted();
+    }
+    
+    /**
+     * The most recent durations, overwriting the oldest ones once full
+     */
+    private static final class Samples {
+        
+        private final long[] values;
+        private int count = 0;
+        private int next = 0;
+        
+        private Samples(int capacity) {
+            this.values = new long[capacity];
+        }
+        
+        private synchronized void add(long value) {
+            values[next] = value;
+            next = (next + 1) % values.length;
+            count = Math.min(count + 1, values.length);
+        }
+        
+        /**
+         * @return the smallest recorded value that the given share of all values does not exceed, -1 if there are none
+         */
+        private synchronized long percentile(double share) {
+            if (count == 0) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            return sorted[Math.max(0, Math.min(count - 1, (int) Math.ceil(share * count) - 1))];
+        }
+        
+    }
+    
+}
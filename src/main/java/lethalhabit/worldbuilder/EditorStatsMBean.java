@@ -0,0 +1,46 @@
+package lethalhabit.worldbuilder;
+
+/**
+ * Performance counters of the editor, published over JMX as {@value EditorStats#OBJECT_NAME}
+ */
+public interface EditorStatsMBean {
+    
+    double getFrameTimeP50Millis();
+    
+    double getFrameTimeP95Millis();
+    
+    double getFrameTimeP99Millis();
+    
+    double getPaintTimeMillis();
+    
+    double getPaintTimeP95Millis();
+    
+    long getCellsVisited();
+    
+    long getTilesDrawn();
+    
+    double getChunkCacheHitRate();
+    
+    double getZoomCacheHitRate();
+    
+    double getLastSaveMillis();
+    
+    double getLastLoadMillis();
+    
+    double getTilesetLoadMillis();
+    
+    long getSaveCount();
+    
+    long getLoadCount();
+    
+    long getUndoMemoryBytes();
+    
+    long getWorldTileCount();
+    
+    long getWorldMemoryBytes();
+    
+    long getHeapUsedBytes();
+    
+    long getHeapMaxBytes();
+    
+}
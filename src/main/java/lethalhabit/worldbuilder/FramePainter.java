@@ -0,0 +1,138 @@
+package lethalhabit.worldbuilder;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.util.List;
+
+/**
+ * Paints one frame of the editor: the grid, the world, the preview of the selected tile on the hovered cell, the
+ * rectangle being dragged out, the world being imported, the tile indices and the F3 overlay.
+ * Everything it draws is described by a {@link Frame}, so frames can be painted onto any graphics, e.g. offscreen
+ * images without a display.
+ */
+public final class FramePainter {
+    
+    public static final float IMPORT_ALPHA = 0.5f;
+    private static final AlphaComposite PREVIEW_COMPOSITE = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.35f);
+    
+    private final WorldRenderer renderer = new WorldRenderer();
+    private final WorldRenderer importRenderer = new WorldRenderer(IMPORT_ALPHA);
+    
+    public void paint(Graphics g, Frame frame) {
+        Graphics2D g2d = (Graphics2D) g;
+        Viewport viewport = frame.viewport();
+        int tileSize = viewport.tileSize();
+        g.setFont(g.getFont().deriveFont(16f).deriveFont(Font.BOLD));
+        g.setColor(Color.BLACK);
+        // grid lines and text would cover the tiles when zoomed out that far
+        boolean detailed = !WorldRenderer.isLowDetail(tileSize);
+        if (frame.grid() && detailed) {
+            // DRAW VERTICAL GRID LINES
+            for (int i = 0; i <= viewport.width() / tileSize; i++) {
+                int offset = viewport.cameraX() % tileSize;
+                int x = i * tileSize - offset;
+                g.drawLine(x, 0, x, viewport.height());
+            }
+            // DRAW HORIZONTAL GRID LINES
+            for (int i = 0; i <= viewport.height() / tileSize; i++) {
+                int offset = viewport.cameraY() % tileSize;
+                int y = i * tileSize - offset;
+                g.drawLine(0, y, viewport.width(), y);
+            }
+        }
+        // DRAW TILES
+        renderer.drawTiles(g, frame.world(), viewport, frame.tileset());
+        if (frame.hovered() != null) {
+            // DRAW SELECTION PREVIEW ON HOVERED TILE
+            int x = viewport.screenX(frame.hovered().x());
+            int y = viewport.screenY(frame.hovered().y());
+            Composite composite = g2d.getComposite();
+            g2d.setComposite(PREVIEW_COMPOSITE);
+            if (frame.block() >= 0) {
+                frame.tileset().blocks().draw(g, frame.block(), x, y, tileSize);
+            }
+            if (frame.liquid() >= 0) {
+                frame.tileset().liquids().draw(g, frame.liquid(), x, y, tileSize);
+            }
+            if (frame.interactable() >= 0) {
+                frame.tileset().interactables().draw(g, frame.interactable(), x, y, tileSize);
+            }
+            g2d.setComposite(composite);
+        }
+        if (frame.selection() != null) {
+            // DRAW OUTLINE OF THE RECTANGLE BEING DRAGGED OUT
+            Rectangle selection = frame.selection();
+            g.setColor(frame.erasing() ? Color.RED : Color.BLUE);
+            g.drawRect(viewport.screenX(selection.x), viewport.screenY(selection.y), selection.width * tileSize, selection.height * tileSize);
+        }
+        if (frame.importWorld() != null) {
+            // DRAW IMPORTED WORLD, from translucent chunk images that are only moved along with the offset
+            Viewport importViewport = new Viewport(viewport.cameraX() - frame.importOffsetX() * tileSize, viewport.cameraY() - frame.importOffsetY() * tileSize,
+                    tileSize, viewport.width(), viewport.height());
+            importRenderer.drawTiles(g, frame.importWorld(), importViewport, frame.tileset());
+        }
+        if (frame.tileIndices() && detailed) {
+            for (int i = viewport.minColumn(); i <= viewport.maxColumn(); i++) {
+                for (int j = viewport.minRow(); j <= viewport.maxRow(); j++) {
+                    int x = viewport.screenX(i);
+                    int y = viewport.screenY(j);
+                    g.setFont(g.getFont().deriveFont(Font.BOLD, 16f * (float) tileSize / (float) WorldBuilder.OG_TILE_SIZE));
+                    String string = i + " | " + j;
+                    int stringX = x + (tileSize - g.getFontMetrics().stringWidth(string)) / 2;
+                    int stringY = y + tileSize - (tileSize - g.getFontMetrics().getHeight()) / 2;
+                    g.setColor(Color.BLUE);
+                    g.drawString(i + " | " + j, stringX, stringY);
+                }
+            }
+        }
+        if (frame.overlay() != null) {
+            g.setColor(Color.RED);
+            g.setFont(g.getFont().deriveFont(Font.BOLD, 16f));
+            int y = 20;
+            for (String line : frame.overlay()) {
+                g.drawString(line, 5, y);
+                y += 20;
+            }
+        }
+    }
+    
+    public WorldRenderer getRenderer() {
+        return renderer;
+    }
+    
+    public WorldRenderer getImportRenderer() {
+        return importRenderer;
+    }
+    
+    /**
+     * Everything one frame shows
+     *
+     * @param hovered      the cell the selected tile is previewed on, {@code null} for none
+     * @param block        the selected block, not previewed if negative, the same goes for liquid and interactable
+     * @param selection    the rectangle being dragged out, {@code null} for none
+     * @param erasing      whether the rectangle is cleared rather than filled
+     * @param importWorld  the world being imported, {@code null} for none
+     * @param tileIndices  whether to write the indices onto every visible cell
+     * @param overlay      lines of text to show in the corner, {@code null} for none
+     */
+    public record Frame(Viewport viewport, WorldStore world, Tileset tileset, boolean grid,
+                        Point hovered, int block, int liquid, int interactable,
+                        Rectangle selection, boolean erasing,
+                        WorldStore importWorld, int importOffsetX, int importOffsetY,
+                        boolean tileIndices, List<String> overlay) {
+        
+        /**
+         * A frame that only shows the world with the grid
+         */
+        public Frame(Viewport viewport, WorldStore world, Tileset tileset) {
+            this(viewport, world, tileset, true, null, -1, -1, -1, null, false, null, 0, 0, false, null);
+        }
+        
+    }
+    
+}
@@ -0,0 +1,113 @@
+package lethalhabit.worldbuilder;
+
+import javax.swing.Timer;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongPredicate;
+
+/**
+ * Drives the editor with a fixed simulation tick and renders at most at the target frame rate.
+ * Continuous motion such as the camera is advanced by the time that actually passed on every timer event instead,
+ * so it stays smooth at frame rates above the tick rate.
+ * Frames are only rendered when something changed, and the scheduler stops entirely while idle
+ * until it is woken up again by {@link #requestFrame()}. All callbacks run on the event dispatch thread.
+ */
+public final class FrameScheduler {
+    
+    public static final int TICK_RATE = 60;
+    public static final long TICK_NANOS = 1_000_000_000L / TICK_RATE;
+    
+    public static final int DEFAULT_TARGET_FPS = 60;
+    
+    /**
+     * Upper bound of ticks run per timer event, so a long stall does not cause a burst of catch-up ticks
+     */
+    private static final int MAX_CATCH_UP_TICKS = 5;
+    
+    private final LongPredicate advance;
+    private final BooleanSupplier tick;
+    private final Runnable render;
+    private final BooleanSupplier active;
+    private final long frameNanos;
+    private final Timer timer;
+    
+    private long lastTickTime;
+    private long lastRenderTime;
+    private long accumulator = 0;
+    private boolean dirty = true;
+    
+    /**
+     * @param advance runs on every timer event with the nanoseconds elapsed since the previous one, returns whether
+     *                anything visible changed
+     * @param tick    runs once per simulation tick, returns whether anything visible changed
+     * @param render  renders a frame
+     * @param active  whether ticks need to keep running even though nothing changed (e.g. keys held down)
+     */
+    public FrameScheduler(LongPredicate advance, BooleanSupplier tick, Runnable render, BooleanSupplier active, int targetFps) {
+        this.advance = advance;
+        this.tick = tick;
+        this.render = render;
+        this.active = active;
+        this.frameNanos = 1_000_000_000L / Math.max(1, targetFps);
+        int delay = (int) Math.max(1, Math.min(TICK_NANOS, frameNanos) / 1_000_000L);
+        this.timer = new Timer(delay, e -> update());
+        this.timer.setCoalesce(true);
+    }
+    
+    public FrameScheduler(LongPredicate advance, BooleanSupplier tick, Runnable render, BooleanSupplier active) {
+        this(advance, tick, render, active, Integer.getInteger("worldbuilder.fps", DEFAULT_TARGET_FPS));
+    }
+    
+    public void start() {
+        wake();
+    }
+    
+    public void stop() {
+        timer.stop();
+    }
+    
+    /**
+     * Marks the current frame as outdated and resumes ticking if the scheduler is idle
+     */
+    public void requestFrame() {
+        dirty = true;
+        wake();
+    }
+    
+    private void wake() {
+        if (!timer.isRunning()) {
+            lastTickTime = System.nanoTime();
+            accumulator = 0;
+            timer.start();
+        }
+    }
+    
+    public boolean isIdle() {
+        return !timer.isRunning();
+    }
+    
+    private void update() {
+        long now = System.nanoTime();
+        long elapsed = now - lastTickTime;
+        accumulator += elapsed;
+        lastTickTime = now;
+        dirty |= advance.test(Math.min(elapsed, MAX_CATCH_UP_TICKS * TICK_NANOS));
+        int ticks = 0;
+        while (accumulator >= TICK_NANOS) {
+            if (ticks++ == MAX_CATCH_UP_TICKS) {
+                accumulator = 0;
+                break;
+            }
+            accumulator -= TICK_NANOS;
+            dirty |= tick.getAsBoolean();
+        }
+        if (dirty && now - lastRenderTime >= frameNanos) {
+            dirty = false;
+            lastRenderTime = now;
+            render.run();
+        }
+        if (!dirty && !active.getAsBoolean()) {
+            timer.stop();
+        }
+    }
+    
+}
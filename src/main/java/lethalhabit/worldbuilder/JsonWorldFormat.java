@@ -0,0 +1,128 @@
+package lethalhabit.worldbuilder;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The original world file format, a JSON object of columns mapping rows to tiles:
+ * {@code {"x": {"y": {"block": .., "liquid": .., "interactable": ..}}}}
+ * Worlds are streamed straight from and into the {@link WorldStore}, without building a JSON tree in between.
+ */
+public final class JsonWorldFormat {
+    
+    private JsonWorldFormat() {
+    }
+    
+    public static WorldStore read(InputStream stream) throws IOException {
+        WorldStore worldData = new WorldStore();
+        JsonReader reader = new JsonReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                int x = parseCoordinate(reader.nextName());
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    int y = parseCoordinate(reader.nextName());
+                    int block = -1, liquid = -1, interactable = -1;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case "block" -> block = nextIndex(reader);
+                            case "liquid" -> liquid = nextIndex(reader);
+                            case "interactable" -> interactable = nextIndex(reader);
+                            default -> reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    worldData.setTile(x, y, block, liquid, interactable);
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+        } catch (IllegalStateException | IllegalArgumentException ex) {
+            // also covers numbers that are not numbers and indices too large to be stored
+            throw new IOException("Malformed world file", ex);
+        }
+        // a freshly loaded world has no unsaved changes
+        worldData.takeDirtyChunks();
+        return worldData;
+    }
+    
+    public static void write(WorldStore world, OutputStream stream) throws IOException {
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        writer.setIndent("  ");
+        writer.beginObject();
+        // the file is organised in columns, so walk the chunks column by column, only one column is read at a time
+        Map<Integer, List<Long>> keyColumns = new TreeMap<>();
+        for (long key : world.getChunkKeys()) {
+            keyColumns.computeIfAbsent(Chunk.keyX(key), k -> new ArrayList<>()).add(key);
+        }
+        for (List<Long> keyColumn : keyColumns.values()) {
+            keyColumn.sort(Comparator.comparingInt(Chunk::keyY));
+            List<Chunk> chunkColumn = new ArrayList<>();
+            for (long key : keyColumn) {
+                Chunk chunk = world.readChunk(key);
+                if (chunk != null) {
+                    chunkColumn.add(chunk);
+                }
+            }
+            for (int localX = 0; localX < Chunk.SIZE; localX++) {
+                boolean columnStarted = false;
+                for (Chunk chunk : chunkColumn) {
+                    for (int localY = 0; localY < Chunk.SIZE; localY++) {
+                        int index = Chunk.index(localX, localY);
+                        if (!chunk.isOccupied(index)) {
+                            continue;
+                        }
+                        if (!columnStarted) {
+                            writer.name(Integer.toString(chunk.originX() + localX));
+                            writer.beginObject();
+                            columnStarted = true;
+                        }
+                        writer.name(Integer.toString(chunk.originY() + localY));
+                        writer.beginObject();
+                        writer.name("block").value(chunk.getBlock(index));
+                        writer.name("liquid").value(chunk.getLiquid(index));
+                        writer.name("interactable").value(chunk.getInteractable(index));
+                        writer.endObject();
+                    }
+                }
+                if (columnStarted) {
+                    writer.endObject();
+                }
+            }
+        }
+        writer.endObject();
+        writer.flush();
+    }
+    
+    private static int parseCoordinate(String name) throws IOException {
+        try {
+            return Integer.parseInt(name);
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid coordinate in world file: " + name, ex);
+        }
+    }
+    
+    private static int nextIndex(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return -1;
+        }
+        return (int) reader.nextDouble();
+    }
+    
+}
@@ -0,0 +1,220 @@
+package lethalhabit.worldbuilder;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rasterizes a whole world into a minimap image.
+ * The world is split into bands of chunk rows which are rendered in parallel on a fork-join pool. Every tile is
+ * downscaled to the minimap's tile size once, and the bands blend those thumbnails straight into the image's pixel
+ * buffer, without going through {@link java.awt.Graphics}.
+ */
+public final class MinimapRenderer {
+    
+    private final Tileset tileset;
+    private final ForkJoinPool pool;
+    
+    public MinimapRenderer(Tileset tileset, ForkJoinPool pool) {
+        this.tileset = tileset;
+        this.pool = pool;
+    }
+    
+    public MinimapRenderer(Tileset tileset) {
+        this(tileset, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * @return the largest tile size at which the given bounds fit into the given area, at least one pixel
+     */
+    public static int tilePixelSize(Rectangle bounds, int maxWidth, int maxHeight) {
+        int maxX = Math.max(1, (int) bounds.getMaxX() - 1);
+        int maxY = Math.max(1, (int) bounds.getMaxY() - 1);
+        return Math.max(1, Math.min(maxWidth / maxX, maxHeight / maxY));
+    }
+    
+    /**
+     * Renders the minimap in the background. The world must not be modified until the returned future completes,
+     * render a copy, or a {@link WorldStore#openView() view} of a paged world, if it is still being edited.
+     */
+    public CompletableFuture<BufferedImage> renderAsync(WorldStore world, int tilePixelSize, ProgressListener listener) {
+        return CompletableFuture.supplyAsync(() -> render(world, tilePixelSize, listener), pool);
+    }
+    
+    /**
+     * Renders the minimap, the area from the origin to the bottom right corner of the world.
+     * Liquids and blocks are drawn, interactables are left out.
+     *
+     * @param listener notified from the worker threads whenever a band is finished, may be {@code null}
+     * @return the minimap, or {@code null} if the world is empty
+     */
+    public BufferedImage render(WorldStore world, int tilePixelSize, ProgressListener listener) {
+        Rectangle bounds = world.getBounds();
+        if (bounds == null) {
+            return null;
+        }
+        EditorEvents.MinimapEvent event = new EditorEvents.MinimapEvent();
+        event.begin();
+        int width = (int) bounds.getMaxX() * tilePixelSize;
+        int height = (int) bounds.getMaxY() * tilePixelSize;
+        BufferedImage map = new BufferedImage(Math.max(1, width), Math.max(1, height), BufferedImage.TYPE_INT_ARGB_PRE);
+        int[] pixels = ((DataBufferInt) map.getRaster().getDataBuffer()).getData();
+        
+        int[][] blocks = thumbnails(tileset.blocks(), tilePixelSize);
+        int[][] liquids = thumbnails(tileset.liquids(), tilePixelSize);
+        
+        Map<Integer, List<Long>> rows = new TreeMap<>();
+        for (long key : world.getChunkKeys()) {
+            rows.computeIfAbsent(Chunk.keyY(key), k -> new ArrayList<>()).add(key);
+        }
+        List<List<Long>> bands = new ArrayList<>(rows.values());
+        AtomicInteger finished = new AtomicInteger();
+        Band task = new Band(bands, 0, bands.size(), () -> {
+            if (listener != null) {
+                listener.progress(finished.incrementAndGet(), bands.size());
+            }
+        }, world, pixels, map.getWidth(), map.getHeight(), tilePixelSize, blocks, liquids);
+        pool.invoke(task);
+        event.end();
+        if (event.shouldCommit()) {
+            event.tilePixelSize = tilePixelSize;
+            event.imageSize = (long) map.getWidth() * map.getHeight() * Integer.BYTES;
+            event.commit();
+        }
+        return map;
+    }
+    
+    /**
+     * Box-filters every image down to the given size
+     *
+     * @return premultiplied ARGB pixels of each image, row by row
+     */
+    static int[][] thumbnails(Collection<BufferedImage> images, int size) {
+        return images.parallelStream().map(image -> thumbnail(image, size)).toArray(int[][]::new);
+    }
+    
+    private static int[] thumbnail(BufferedImage image, int size) {
+        int sourceWidth = image.getWidth(), sourceHeight = image.getHeight();
+        int[] source = image.getRGB(0, 0, sourceWidth, sourceHeight, null, 0, sourceWidth);
+        int[] thumbnail = new int[size * size];
+        for (int ty = 0; ty < size; ty++) {
+            int fromY = ty * sourceHeight / size, toY = Math.max(fromY + 1, (ty + 1) * sourceHeight / size);
+            for (int tx = 0; tx < size; tx++) {
+                int fromX = tx * sourceWidth / size, toX = Math.max(fromX + 1, (tx + 1) * sourceWidth / size);
+                long a = 0, r = 0, g = 0, b = 0;
+                for (int sy = fromY; sy < toY; sy++) {
+                    for (int sx = fromX; sx < toX; sx++) {
+                        int argb = source[sy * sourceWidth + sx];
+                        int alpha = argb >>> 24;
+                        a += alpha;
+                        r += ((argb >> 16) & 0xFF) * alpha;
+                        g += ((argb >> 8) & 0xFF) * alpha;
+                        b += (argb & 0xFF) * alpha;
+                    }
+                }
+                long count = (long) (toX - fromX) * (toY - fromY);
+                long divisor = count * 255;
+                thumbnail[ty * size + tx] = (int) (a / count) << 24 | (int) (r / divisor) << 16 | (int) (g / divisor) << 8 | (int) (b / divisor);
+            }
+        }
+        return thumbnail;
+    }
+    
+    /**
+     * Composites a premultiplied source pixel over a premultiplied destination pixel
+     */
+    static int blend(int source, int destination) {
+        int inverse = 255 - (source >>> 24);
+        if (inverse == 0) {
+            return source;
+        }
+        int a = (source >>> 24) + (destination >>> 24) * inverse / 255;
+        int r = ((source >> 16) & 0xFF) + ((destination >> 16) & 0xFF) * inverse / 255;
+        int g = ((source >> 8) & 0xFF) + ((destination >> 8) & 0xFF) * inverse / 255;
+        int b = (source & 0xFF) + (destination & 0xFF) * inverse / 255;
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+    
+    @FunctionalInterface
+    public interface ProgressListener {
+        
+        void progress(int finishedBands, int totalBands);
+        
+    }
+    
+    private static final class Band extends RecursiveAction {
+        
+        private final List<List<Long>> bands;
+        private final int from, to;
+        private final Runnable onFinished;
+        private final WorldStore world;
+        private final int[] pixels;
+        private final int width, height, tileSize;
+        private final int[][] blocks, liquids;
+        
+        private Band(List<List<Long>> bands, int from, int to, Runnable onFinished, WorldStore world, int[] pixels, int width, int height, int tileSize, int[][] blocks, int[][] liquids) {
+            this.bands = bands;
+            this.from = from;
+            this.to = to;
+            this.onFinished = onFinished;
+            this.world = world;
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+            this.tileSize = tileSize;
+            this.blocks = blocks;
+            this.liquids = liquids;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Band(bands, from, middle, onFinished, world, pixels, width, height, tileSize, blocks, liquids),
+                        new Band(bands, middle, to, onFinished, world, pixels, width, height, tileSize, blocks, liquids));
+                return;
+            }
+            for (long key : bands.get(from)) {
+                Chunk chunk = world.readChunk(key);
+                if (chunk == null) {
+                    continue;
+                }
+                for (int index = 0; index < Chunk.AREA; index++) {
+                    int liquid = chunk.getLiquid(index), block = chunk.getBlock(index);
+                    int x = (chunk.originX() + (index & Chunk.MASK)) * tileSize;
+                    int y = (chunk.originY() + (index >> Chunk.SHIFT)) * tileSize;
+                    if (liquid >= 0 && liquid < liquids.length) {
+                        drawThumbnail(liquids[liquid], x, y);
+                    }
+                    if (block >= 0 && block < blocks.length) {
+                        drawThumbnail(blocks[block], x, y);
+                    }
+                }
+            }
+            onFinished.run();
+        }
+        
+        private void drawThumbnail(int[] thumbnail, int x, int y) {
+            if (x < 0 || y < 0 || x + tileSize > width || y + tileSize > height) {
+                return;
+            }
+            for (int ty = 0; ty < tileSize; ty++) {
+                int row = (y + ty) * width + x;
+                for (int tx = 0; tx < tileSize; tx++) {
+                    pixels[row + tx] = blend(thumbnail[ty * tileSize + tx], pixels[row + tx]);
+                }
+            }
+        }
+        
+    }
+    
+}
@@ -0,0 +1,154 @@
+package lethalhabit.worldbuilder;
+
+import java.util.Arrays;
+
+/**
+ * Paints or erases tiles along the path of the mouse while a button is held.
+ * The cells between two consecutive samples are rasterized as a line, so fast drags do not leave gaps. Cells that
+ * already hold the painted tile are not written again, and the shapes around the cells that did change are updated
+ * in one batch per {@link #flush}, every affected cell once. Nothing is allocated while painting once the change
+ * buffer has grown to the size of the largest batch.
+ */
+public final class PaintStroke {
+    
+    private final WorldStore world;
+    
+    private boolean active = false;
+    private boolean erase;
+    private int block, liquid, interactable;
+    private int lastX, lastY;
+    
+    /**
+     * Cells changed since the last flush, {@link Chunk#key(int, int) packed} like chunk keys
+     */
+    private long[] changed = new long[64];
+    private int changedCount = 0;
+    
+    public PaintStroke(WorldStore world) {
+        this.world = world;
+    }
+    
+    /**
+     * Starts a stroke that sets the given layers, negative layers are left as they are
+     */
+    public void beginPaint(int block, int liquid, int interactable) {
+        this.active = true;
+        this.erase = false;
+        this.block = block;
+        this.liquid = liquid;
+        this.interactable = interactable;
+        this.lastX = -1;
+    }
+    
+    /**
+     * Starts a stroke that removes tiles
+     */
+    public void beginErase() {
+        beginPaint(-1, -1, -1);
+        this.erase = true;
+    }
+    
+    public boolean isActive() {
+        return active;
+    }
+    
+    /**
+     * Continues the stroke to the given cell, painting every cell on the line from the previous one
+     */
+    public void moveTo(int x, int y) {
+        if (!active || x == lastX && y == lastY) {
+            return;
+        }
+        if (lastX < 0) {
+            paint(x, y);
+        } else {
+            // Bresenham, the previous cell has already been painted
+            int dx = Math.abs(x - lastX), dy = -Math.abs(y - lastY);
+            int stepX = lastX < x ? 1 : -1, stepY = lastY < y ? 1 : -1;
+            int error = dx + dy;
+            int cellX = lastX, cellY = lastY;
+            while (cellX != x || cellY != y) {
+                int doubled = 2 * error;
+                if (doubled >= dy) {
+                    error += dy;
+                    cellX += stepX;
+                }
+                if (doubled <= dx) {
+                    error += dx;
+                    cellY += stepY;
+                }
+                paint(cellX, cellY);
+            }
+        }
+        lastX = x;
+        lastY = y;
+    }
+    
+    private void paint(int x, int y) {
+        if (x < 0 || y < 0) {
+            return;
+        }
+        boolean changedCell = erase ? world.removeTile(x, y) : world.setTile(x, y,
+                block >= 0 ? block : world.getBlock(x, y),
+                liquid >= 0 ? liquid : world.getLiquid(x, y),
+                interactable >= 0 ? interactable : world.getInteractable(x, y));
+        if (changedCell) {
+            if (changedCount == changed.length) {
+                changed = Arrays.copyOf(changed, changedCount * 2);
+            }
+            changed[changedCount++] = Chunk.key(x, y);
+        }
+    }
+    
+    /**
+     * Reshapes the neighbourhoods of the cells changed since the last flush
+     *
+     * @param autoShape whether to reshape, the changes are forgotten either way
+     */
+    public void flush(boolean autoShape) {
+        if (autoShape && changedCount > 0) {
+            EditorEvents.AutoShapeEvent event = new EditorEvents.AutoShapeEvent();
+            event.begin();
+            int reshaped = 0, reshapedChanged = 0;
+            // every cell of the 3x3 neighbourhood of every changed cell, sorted to reshape each of them once
+            int neighbourhood = changedCount * 9;
+            if (changed.length < changedCount + neighbourhood) {
+                changed = Arrays.copyOf(changed, changedCount + neighbourhood);
+            }
+            int count = 0;
+            for (int i = 0; i < changedCount; i++) {
+                int x = Chunk.keyX(changed[i]), y = Chunk.keyY(changed[i]);
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        changed[changedCount + count++] = Chunk.key(x + dx, y + dy);
+                    }
+                }
+            }
+            Arrays.sort(changed, changedCount, changedCount + count);
+            for (int i = changedCount; i < changedCount + count; i++) {
+                if (i == changedCount || changed[i] != changed[i - 1]) {
+                    reshaped++;
+                    if (AutoShaper.shapeTile(world, Chunk.keyX(changed[i]), Chunk.keyY(changed[i]))) {
+                        reshapedChanged++;
+                    }
+                }
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.cells = reshaped;
+                event.changed = reshapedChanged;
+                event.commit();
+            }
+        }
+        changedCount = 0;
+    }
+    
+    /**
+     * Ends the stroke, reshaping what is still pending
+     */
+    public void end(boolean autoShape) {
+        flush(autoShape);
+        active = false;
+    }
+    
+}
@@ -0,0 +1,451 @@
+package lethalhabit.worldbuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Stores a world in memory-mapped region files, so that worlds far larger than the heap can be edited.
+ * A region world consists of an index file and a directory of region files named after it:
+ * <pre>
+ * world.lhwr                       index:  int magic ("LHWR"), short version, byte chunk shift, byte region shift, 8 bytes reserved
+ * world.regions/r.&lt;x&gt;.&lt;y&gt;.lhr     region: the same header, short[REGION_AREA] tile counts, chunk slots from the first page on
+ * </pre>
+ * Every region covers {@link #REGION_SIZE} x {@link #REGION_SIZE} chunks. Each chunk has a slot at a fixed offset
+ * holding the same uncompressed payload as a {@link BinaryWorldFormat} record, so chunks are read and written in
+ * place without any allocation table. Only the start of the slots is page aligned, the slots are packed one payload
+ * apart and may straddle pages. A tile count of 0 marks an absent chunk. Region files are created sparse, the
+ * slots of absent chunks take no disk space on most file systems.
+ * <p>
+ * At most {@link #MAX_MAPPED_REGIONS} regions are mapped at once. Chunks are copied in and out of the mappings while
+ * holding the lock of their region, the operating system pages the files in and writes them back.
+ */
+public final class RegionFileBackend implements ChunkBackend {
+    
+    public static final int MAGIC = 0x4C485752;
+    public static final short VERSION = 1;
+    public static final String EXTENSION = ".lhwr";
+    
+    public static final int REGION_SHIFT = 5;
+    public static final int REGION_SIZE = 1 << REGION_SHIFT;
+    public static final int REGION_MASK = REGION_SIZE - 1;
+    public static final int REGION_AREA = REGION_SIZE * REGION_SIZE;
+    
+    private static final int HEADER_SIZE = 16;
+    private static final int PAGE_SIZE = 4096;
+    private static final int DATA_OFFSET = PAGE_SIZE;
+    private static final int REGION_FILE_SIZE = DATA_OFFSET + REGION_AREA * BinaryWorldFormat.RAW_PAYLOAD_SIZE;
+    
+    public static final int MAX_MAPPED_REGIONS = 256;
+    
+    private final Path indexFile;
+    private final Path directory;
+    
+    /**
+     * Keys of the regions that have a file, whether they are mapped or not
+     */
+    private final Set<Long> regionKeys = new HashSet<>();
+    
+    /**
+     * Mapped regions, least recently used first
+     */
+    private final Map<Long, Region> mapped = new LinkedHashMap<>(16, 0.75f, true);
+    
+    /**
+     * Regions that were unmapped since the last flush without their changes being forced to disk
+     */
+    private final List<Region> unflushed = new ArrayList<>();
+    
+    private final AtomicLong tileCount = new AtomicLong();
+    
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "region-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    /**
+     * Latest chunk range to prefetch, older requests that have not started yet are dropped
+     */
+    private final AtomicReference<int[]> prefetchRange = new AtomicReference<>();
+    
+    private RegionFileBackend(Path indexFile) {
+        this.indexFile = indexFile.toAbsolutePath();
+        this.directory = regionDirectory(this.indexFile);
+    }
+    
+    /**
+     * Opens an existing region world
+     *
+     * @param indexFile the index file of the world
+     */
+    public static RegionFileBackend open(Path indexFile) throws IOException {
+        RegionFileBackend backend = new RegionFileBackend(indexFile);
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            checkHeader(readFully(channel, 0, HEADER_SIZE), indexFile);
+        }
+        if (Files.isDirectory(backend.directory)) {
+            try (Stream<Path> files = Files.list(backend.directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    long key = parseRegionKey(file.getFileName().toString());
+                    if (key != -1) {
+                        backend.regionKeys.add(key);
+                        backend.tileCount.addAndGet(countTiles(file));
+                    }
+                }
+            }
+        }
+        return backend;
+    }
+    
+    /**
+     * Creates an empty region world, replacing any region world with the same index file
+     */
+    public static RegionFileBackend create(Path indexFile) throws IOException {
+        RegionFileBackend backend = new RegionFileBackend(indexFile);
+        Files.createDirectories(backend.directory);
+        try (Stream<Path> files = Files.list(backend.directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (parseRegionKey(file.getFileName().toString()) != -1) {
+                    Files.delete(file);
+                }
+            }
+        }
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = writeHeader(ByteBuffer.allocate(HEADER_SIZE)).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        }
+        return backend;
+    }
+    
+    /**
+     * Deletes a region world, its index file, its region files and their directory if nothing else is in it
+     */
+    public static void delete(Path indexFile) throws IOException {
+        Path directory = regionDirectory(indexFile);
+        if (Files.isDirectory(directory)) {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (parseRegionKey(file.getFileName().toString()) != -1) {
+                        Files.delete(file);
+                    }
+                }
+            }
+            try (Stream<Path> files = Files.list(directory)) {
+                if (files.findAny().isEmpty()) {
+                    Files.delete(directory);
+                }
+            }
+        }
+        Files.deleteIfExists(indexFile);
+    }
+    
+    /**
+     * @return the number of bytes the files of a region world take up, as far as the file system reports it
+     */
+    public static long size(Path indexFile) throws IOException {
+        long size = Files.size(indexFile);
+        Path directory = regionDirectory(indexFile);
+        if (Files.isDirectory(directory)) {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (parseRegionKey(file.getFileName().toString()) != -1) {
+                        size += Files.size(file);
+                    }
+                }
+            }
+        }
+        return size;
+    }
+    
+    /**
+     * @return the directory holding the region files of the world with the given index file
+     */
+    public static Path regionDirectory(Path indexFile) {
+        String name = indexFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return indexFile.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + ".regions");
+    }
+    
+    public Path getIndexFile() {
+        return indexFile;
+    }
+    
+    @Override
+    public Chunk load(int chunkX, int chunkY) {
+        Region region = region(chunkX >> REGION_SHIFT, chunkY >> REGION_SHIFT, false);
+        return region == null ? null : region.read(chunkX, chunkY);
+    }
+    
+    @Override
+    public void store(Chunk chunk) {
+        if (chunk.isEmpty()) {
+            remove(chunk.x, chunk.y);
+        } else {
+            region(chunk.x >> REGION_SHIFT, chunk.y >> REGION_SHIFT, true).write(chunk);
+        }
+    }
+    
+    @Override
+    public void remove(int chunkX, int chunkY) {
+        Region region = region(chunkX >> REGION_SHIFT, chunkY >> REGION_SHIFT, false);
+        if (region != null) {
+            region.clear(chunkX, chunkY);
+        }
+    }
+    
+    @Override
+    public Set<Long> keys() {
+        List<Long> regions;
+        synchronized (mapped) {
+            regions = new ArrayList<>(regionKeys);
+        }
+        Set<Long> keys = new HashSet<>();
+        for (long regionKey : regions) {
+            Region region = region(Chunk.keyX(regionKey), Chunk.keyY(regionKey), false);
+            if (region != null) {
+                region.collectKeys(keys);
+            }
+        }
+        return keys;
+    }
+    
+    @Override
+    public long getTileCount() {
+        return tileCount.get();
+    }
+    
+    /**
+     * Touches the pages of every stored chunk in the range on a background thread, so that the operating system has
+     * read them by the time they are loaded
+     */
+    @Override
+    public void prefetch(int minChunkX, int minChunkY, int maxChunkX, int maxChunkY) {
+        if (prefetchRange.getAndSet(new int[] {minChunkX, minChunkY, maxChunkX, maxChunkY}) == null) {
+            prefetcher.execute(() -> {
+                int[] range = prefetchRange.getAndSet(null);
+                for (int chunkY = range[1]; chunkY <= range[3]; chunkY++) {
+                    for (int chunkX = range[0]; chunkX <= range[2]; chunkX++) {
+                        Region region = region(chunkX >> REGION_SHIFT, chunkY >> REGION_SHIFT, false);
+                        if (region != null) {
+                            region.touch(chunkX, chunkY);
+                        }
+                    }
+                }
+            });
+        }
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        List<Region> regions;
+        synchronized (mapped) {
+            regions = new ArrayList<>(mapped.values());
+            regions.addAll(unflushed);
+            unflushed.clear();
+        }
+        for (Region region : regions) {
+            region.buffer.force();
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        prefetcher.shutdownNow();
+        flush();
+        synchronized (mapped) {
+            mapped.clear();
+        }
+    }
+    
+    /**
+     * @param create whether to create the region file if it does not exist yet
+     * @return the mapped region, or {@code null} if it has no file and is not to be created
+     */
+    private Region region(int regionX, int regionY, boolean create) {
+        long key = Chunk.key(regionX, regionY);
+        synchronized (mapped) {
+            Region region = mapped.get(key);
+            if (region != null || !create && !regionKeys.contains(key)) {
+                return region;
+            }
+            try {
+                region = new Region(regionX, regionY, directory.resolve("r." + regionX + "." + regionY + ".lhr"));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            regionKeys.add(key);
+            mapped.put(key, region);
+            if (mapped.size() > MAX_MAPPED_REGIONS) {
+                // the mapping stays valid until it is garbage collected, its changes still have to be forced on flush
+                Iterator<Region> eldest = mapped.values().iterator();
+                unflushed.add(eldest.next());
+                eldest.remove();
+            }
+            return region;
+        }
+    }
+    
+    /**
+     * @return the region key encoded in the name of a region file, or -1 if it is no region file
+     */
+    private static long parseRegionKey(String name) {
+        String[] parts = name.split("\\.");
+        if (parts.length != 4 || !parts[0].equals("r") || !parts[3].equals("lhr")) {
+            return -1;
+        }
+        try {
+            return Chunk.key(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Sums up the tile counts of a region file without mapping it
+     */
+    private static long countTiles(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = readFully(channel, 0, HEADER_SIZE + REGION_AREA * Short.BYTES);
+            checkHeader(header, file);
+            long count = 0;
+            for (int slot = 0; slot < REGION_AREA; slot++) {
+                count += header.getShort(HEADER_SIZE + slot * Short.BYTES);
+            }
+            return count;
+        }
+    }
+    
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of region file");
+            }
+        }
+        return buffer;
+    }
+    
+    private static ByteBuffer writeHeader(ByteBuffer buffer) {
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, VERSION);
+        buffer.put(6, (byte) Chunk.SHIFT);
+        buffer.put(7, (byte) REGION_SHIFT);
+        return buffer.position(HEADER_SIZE);
+    }
+    
+    private static void checkHeader(ByteBuffer header, Path file) throws IOException {
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a region world file: " + file);
+        }
+        if (header.getShort(4) > VERSION) {
+            throw new IOException("Unsupported region world version " + header.getShort(4) + ": " + file);
+        }
+        if (header.get(6) != Chunk.SHIFT || header.get(7) != REGION_SHIFT) {
+            throw new IOException("Unsupported chunk or region size: " + file);
+        }
+    }
+    
+    /**
+     * One mapped region file, every access to its chunks holds its lock
+     */
+    private final class Region {
+        
+        private final int x, y;
+        private final MappedByteBuffer buffer;
+        
+        private Region(int x, int y, Path file) throws IOException {
+            this.x = x;
+            this.y = y;
+            Files.createDirectories(file.getParent());
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+                boolean created = channel.size() == 0;
+                if (!created && channel.size() < REGION_FILE_SIZE) {
+                    throw new IOException("Truncated region file " + file);
+                }
+                // mapping beyond the end grows the file, without writing the slots in between
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_FILE_SIZE);
+                if (created) {
+                    writeHeader(buffer);
+                } else {
+                    checkHeader(buffer, file);
+                }
+            }
+        }
+        
+        private int slot(int chunkX, int chunkY) {
+            return ((chunkY & REGION_MASK) << REGION_SHIFT) | (chunkX & REGION_MASK);
+        }
+        
+        private int countOffset(int slot) {
+            return HEADER_SIZE + slot * Short.BYTES;
+        }
+        
+        private synchronized Chunk read(int chunkX, int chunkY) {
+            int slot = slot(chunkX, chunkY);
+            if (buffer.getShort(countOffset(slot)) == 0) {
+                return null;
+            }
+            Chunk chunk = BinaryWorldFormat.decodeChunk(chunkX, chunkY, buffer.slice(DATA_OFFSET + slot * BinaryWorldFormat.RAW_PAYLOAD_SIZE, BinaryWorldFormat.RAW_PAYLOAD_SIZE));
+            chunk.recount();
+            return chunk;
+        }
+        
+        private synchronized void write(Chunk chunk) {
+            int slot = slot(chunk.x, chunk.y);
+            BinaryWorldFormat.encodeChunk(chunk, buffer.slice(DATA_OFFSET + slot * BinaryWorldFormat.RAW_PAYLOAD_SIZE, BinaryWorldFormat.RAW_PAYLOAD_SIZE));
+            int previous = buffer.getShort(countOffset(slot));
+            buffer.putShort(countOffset(slot), (short) chunk.getTileCount());
+            tileCount.addAndGet(chunk.getTileCount() - previous);
+        }
+        
+        private synchronized void clear(int chunkX, int chunkY) {
+            int slot = slot(chunkX, chunkY);
+            int previous = buffer.getShort(countOffset(slot));
+            buffer.putShort(countOffset(slot), (short) 0);
+            tileCount.addAndGet(-previous);
+        }
+        
+        private synchronized void collectKeys(Set<Long> keys) {
+            for (int slot = 0; slot < REGION_AREA; slot++) {
+                if (buffer.getShort(countOffset(slot)) != 0) {
+                    keys.add(Chunk.key((x << REGION_SHIFT) | (slot & REGION_MASK), (y << REGION_SHIFT) | (slot >> REGION_SHIFT)));
+                }
+            }
+        }
+        
+        /**
+         * Reads a byte of every page of the chunk's slot, without taking the lock
+         */
+        private void touch(int chunkX, int chunkY) {
+            int slot = slot(chunkX, chunkY);
+            if (buffer.getShort(countOffset(slot)) != 0) {
+                int start = DATA_OFFSET + slot * BinaryWorldFormat.RAW_PAYLOAD_SIZE;
+                for (int offset = start; offset < start + BinaryWorldFormat.RAW_PAYLOAD_SIZE; offset += PAGE_SIZE - offset % PAGE_SIZE) {
+                    buffer.get(offset);
+                }
+            }
+        }
+        
+    }
+    
+}
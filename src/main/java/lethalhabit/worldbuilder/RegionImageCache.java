@@ -0,0 +1,219 @@
+package lethalhabit.worldbuilder;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the images the world is drawn from at {@link WorldRenderer#isLowDetail low detail}. Each image covers a
+ * square region of several chunks, so that even when the whole world is visible only a few images are drawn per frame.
+ * The tiles are box-filtered down to the tile size once, shrinking to their average colour at a single pixel, and
+ * blended straight into the pixels of the regions, like the {@link MinimapRenderer} does, so building them is cheap.
+ * Every chunk of a region is validated against its {@link Chunk#getVersion() version}, which no other chunk ever
+ * shares, and rendered again on its own when it changed, so the cache holds no chunks and a chunk that was paged out
+ * and in again is noticed as well. The least recently drawn regions are evicted once the memory cap is exceeded.
+ */
+public final class RegionImageCache {
+    
+    /**
+     * Regions are as many chunks wide as fit into this many pixels, but at least one
+     */
+    public static final int REGION_IMAGE_SIZE = 512;
+    
+    /**
+     * Version remembered for slots whose chunk does not exist
+     */
+    private static final long ABSENT = -1;
+    
+    private final long memoryCap;
+    
+    /**
+     * Opacity every layer is composited with
+     */
+    private final float alpha;
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    
+    private long memoryUsage = 0;
+    private int tileSize = -1;
+    private Tileset tileset = null;
+    private int regionSize = 1;
+    
+    /**
+     * Premultiplied pixels of every tile at the current tile size
+     */
+    private int[][] blocks, liquids, interactables;
+    private int[] pixels;
+    
+    private long hits = 0;
+    private long misses = 0;
+    private int tileCount = 0;
+    
+    public RegionImageCache(long memoryCap, float alpha) {
+        this.memoryCap = memoryCap;
+        this.alpha = alpha;
+    }
+    
+    public RegionImageCache(float alpha) {
+        this(Integer.getInteger("worldbuilder.chunkCacheMB", ChunkImageCache.DEFAULT_MEMORY_CAP_MB) * 1024L * 1024L, alpha);
+    }
+    
+    /**
+     * @return the number of chunks per side of the regions at the given tile size
+     */
+    public static int regionSize(int tileSize) {
+        return Math.max(1, REGION_IMAGE_SIZE / (tileSize * Chunk.SIZE));
+    }
+    
+    /**
+     * @return the image of the given region, with the chunks that changed since it was cached rendered again, or
+     * {@code null} if none of its chunks exist and it was never drawn
+     */
+    public BufferedImage get(WorldStore world, int regionX, int regionY, int tileSize, Tileset tileset) {
+        if (tileSize != this.tileSize || tileset != this.tileset) {
+            // zoom level or tileset changed
+            clear();
+            this.tileSize = tileSize;
+            this.tileset = tileset;
+            this.regionSize = regionSize(tileSize);
+            this.blocks = MinimapRenderer.thumbnails(tileset.blocks(), tileSize);
+            this.liquids = MinimapRenderer.thumbnails(tileset.liquids(), tileSize);
+            this.interactables = MinimapRenderer.thumbnails(tileset.interactables(), tileSize);
+            this.pixels = new int[tileSize * Chunk.SIZE * tileSize * Chunk.SIZE];
+        }
+        long key = Chunk.key(regionX, regionY);
+        Entry entry = entries.get(key);
+        tileCount = 0;
+        for (int y = 0; y < regionSize; y++) {
+            for (int x = 0; x < regionSize; x++) {
+                Chunk chunk = world.getChunk(regionX * regionSize + x, regionY * regionSize + y);
+                int slot = y * regionSize + x;
+                if (chunk != null) {
+                    tileCount += chunk.getTileCount();
+                }
+                if (entry == null) {
+                    if (chunk == null) {
+                        continue;
+                    }
+                    entry = new Entry(regionSize);
+                    entries.put(key, entry);
+                    memoryUsage += entry.memoryUsage();
+                    evict();
+                }
+                long version = chunk == null ? ABSENT : chunk.getVersion();
+                if (entry.versions[slot] == version) {
+                    hits++;
+                    continue;
+                }
+                misses++;
+                entry.versions[slot] = version;
+                rasterize(entry.image, chunk, x * tileSize * Chunk.SIZE, y * tileSize * Chunk.SIZE);
+            }
+        }
+        return entry == null ? null : entry.image;
+    }
+    
+    /**
+     * Renders one chunk into its part of a region image, clears that part if the chunk is gone
+     */
+    private void rasterize(BufferedImage image, Chunk chunk, int offsetX, int offsetY) {
+        int width = tileSize * Chunk.SIZE;
+        Arrays.fill(pixels, 0);
+        if (chunk != null) {
+            for (int index = 0; index < Chunk.AREA; index++) {
+                if (chunk.isOccupied(index)) {
+                    int x = (index & Chunk.MASK) * tileSize, y = (index >> Chunk.SHIFT) * tileSize;
+                    drawThumbnail(liquids, chunk.getLiquid(index), x, y, width);
+                    drawThumbnail(blocks, chunk.getBlock(index), x, y, width);
+                    drawThumbnail(interactables, chunk.getInteractable(index), x, y, width);
+                }
+            }
+            if (alpha < 1f) {
+                for (int i = 0; i < pixels.length; i++) {
+                    pixels[i] = fade(pixels[i]);
+                }
+            }
+        }
+        // copied in rather than drawn into the image's own buffer, which would keep it from being accelerated
+        image.getRaster().setDataElements(offsetX, offsetY, width, width, pixels);
+    }
+    
+    private void drawThumbnail(int[][] thumbnails, int tile, int x, int y, int width) {
+        if (tile < 0 || tile >= thumbnails.length) {
+            return;
+        }
+        int[] thumbnail = thumbnails[tile];
+        for (int ty = 0; ty < tileSize; ty++) {
+            int row = (y + ty) * width + x;
+            for (int tx = 0; tx < tileSize; tx++) {
+                pixels[row + tx] = MinimapRenderer.blend(thumbnail[ty * tileSize + tx], pixels[row + tx]);
+            }
+        }
+    }
+    
+    /**
+     * Scales every component of a premultiplied pixel by the opacity of this cache
+     */
+    private int fade(int pixel) {
+        if (pixel == 0) {
+            return 0;
+        }
+        int a = Math.round((pixel >>> 24) * alpha);
+        int r = Math.round(((pixel >> 16) & 0xFF) * alpha);
+        int g = Math.round(((pixel >> 8) & 0xFF) * alpha);
+        int b = Math.round((pixel & 0xFF) * alpha);
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+    
+    private void evict() {
+        Iterator<Map.Entry<Long, Entry>> iterator = entries.entrySet().iterator();
+        while (memoryUsage > memoryCap && entries.size() > 1 && iterator.hasNext()) {
+            memoryUsage -= iterator.next().getValue().memoryUsage();
+            iterator.remove();
+        }
+    }
+    
+    public void clear() {
+        entries.clear();
+        memoryUsage = 0;
+    }
+    
+    public long getMemoryUsage() {
+        return memoryUsage;
+    }
+    
+    public long getHits() {
+        return hits;
+    }
+    
+    public long getMisses() {
+        return misses;
+    }
+    
+    /**
+     * @return the number of occupied cells in the region last returned by {@link #get}
+     */
+    public int getTileCount() {
+        return tileCount;
+    }
+    
+    private final class Entry {
+        
+        private final BufferedImage image;
+        private final long[] versions;
+        
+        private Entry(int regionSize) {
+            int size = regionSize * tileSize * Chunk.SIZE;
+            this.image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB_PRE);
+            this.versions = new long[regionSize * regionSize];
+            Arrays.fill(versions, ABSENT);
+        }
+        
+        private long memoryUsage() {
+            return (long) image.getWidth() * image.getHeight() * Integer.BYTES;
+        }
+        
+    }
+    
+}
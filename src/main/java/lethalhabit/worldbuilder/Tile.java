@@ -18,6 +18,25 @@ public final class Tile {
         this(other.block, other.liquid, other.interactable);
     }
     
+    /**
+     * Packs the three layer indices of a cell into a single long, 16 bits each
+     */
+    public static long pack(int block, int liquid, int interactable) {
+        return (block & 0xFFFFL) | (liquid & 0xFFFFL) << 16 | (interactable & 0xFFFFL) << 32;
+    }
+    
+    public static int unpackBlock(long packed) {
+        return (short) packed;
+    }
+    
+    public static int unpackLiquid(long packed) {
+        return (short) (packed >>> 16);
+    }
+    
+    public static int unpackInteractable(long packed) {
+        return (short) (packed >>> 32);
+    }
+    
     @Override
     public boolean equals(Object other) {
         return other instanceof Tile tile && this.block == tile.block && this.liquid == tile.liquid;
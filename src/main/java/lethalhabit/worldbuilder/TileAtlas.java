@@ -0,0 +1,92 @@
+package lethalhabit.worldbuilder;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * The tiles of one layer packed side by side into a few large images in the format of the screen, so that drawing
+ * them only needs as many accelerated surfaces as there are pages instead of one per tile, and no conversion.
+ * Single tiles are still available through the list interface, as sub-images sharing the pixels of their page.
+ */
+public final class TileAtlas extends AbstractList<BufferedImage> {
+    
+    /**
+     * Pages are never larger than this (in pixels per side), larger images are not accelerated by every graphics card
+     */
+    public static final int MAX_PAGE_SIZE = 4096;
+    
+    private final int tileSize;
+    private final int columns;
+    private final int tilesPerPage;
+    private final BufferedImage[] pages;
+    private final BufferedImage[] tiles;
+    
+    /**
+     * Packs the images, images that are not of the given size are scaled to it
+     */
+    public TileAtlas(List<BufferedImage> images, int tileSize) {
+        this.tileSize = tileSize;
+        this.columns = Math.max(1, MAX_PAGE_SIZE / tileSize);
+        this.tilesPerPage = columns * columns;
+        this.pages = new BufferedImage[(images.size() + tilesPerPage - 1) / tilesPerPage];
+        this.tiles = new BufferedImage[images.size()];
+        for (int page = 0; page < pages.length; page++) {
+            int count = Math.min(tilesPerPage, images.size() - page * tilesPerPage);
+            pages[page] = createImage(Math.min(count, columns) * tileSize, (count + columns - 1) / columns * tileSize);
+            Graphics2D g = pages[page].createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            for (int slot = 0; slot < count; slot++) {
+                int index = page * tilesPerPage + slot;
+                int x = slot % columns * tileSize, y = slot / columns * tileSize;
+                g.drawImage(images.get(index), x, y, tileSize, tileSize, null);
+                tiles[index] = pages[page].getSubimage(x, y, tileSize, tileSize);
+            }
+            g.dispose();
+        }
+    }
+    
+    /**
+     * @return a translucent image in the format of the default screen, or a premultiplied ARGB one without a display
+     */
+    public static BufferedImage createImage(int width, int height) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration()
+                .createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+    }
+    
+    /**
+     * Draws a tile straight from its page, stretched to the given size
+     */
+    public void draw(Graphics g, int index, int x, int y, int size) {
+        int slot = index % tilesPerPage;
+        int sourceX = slot % columns * tileSize, sourceY = slot / columns * tileSize;
+        g.drawImage(pages[index / tilesPerPage], x, y, x + size, y + size, sourceX, sourceY, sourceX + tileSize, sourceY + tileSize, null);
+    }
+    
+    @Override
+    public BufferedImage get(int index) {
+        return tiles[index];
+    }
+    
+    @Override
+    public int size() {
+        return tiles.length;
+    }
+    
+    public int getTileSize() {
+        return tileSize;
+    }
+    
+    public int getPageCount() {
+        return pages.length;
+    }
+    
+}
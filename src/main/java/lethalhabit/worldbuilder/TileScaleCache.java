@@ -0,0 +1,87 @@
+package lethalhabit.worldbuilder;
+
+import javax.swing.SwingUtilities;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Scaled copies of a tileset for recently used zoom levels, bounded by a least recently used policy.
+ * Scaling runs in the background, callers keep using whatever tileset they have until the requested one completes.
+ * Scales that fail, e.g. because they run out of memory, are logged and evicted so that they are retried on the next
+ * request. Only accessed from the event dispatch thread.
+ */
+public final class TileScaleCache {
+    
+    public static final int DEFAULT_CAPACITY = 8;
+    
+    private final Tileset original;
+    private final Map<Integer, CompletableFuture<Tileset>> scales;
+    
+    private long hits = 0;
+    private long misses = 0;
+    
+    public TileScaleCache(Tileset original, int capacity) {
+        this.original = original;
+        this.scales = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, CompletableFuture<Tileset>> eldest) {
+                return size() > capacity;
+            }
+        };
+        scales.put(original.tileSize(), CompletableFuture.completedFuture(original));
+    }
+    
+    public TileScaleCache(Tileset original) {
+        this(original, Integer.getInteger("worldbuilder.zoomCache", DEFAULT_CAPACITY));
+    }
+    
+    /**
+     * @return the tileset scaled to the given size, completing once scaling has finished
+     */
+    public CompletableFuture<Tileset> request(int tileSize) {
+        CompletableFuture<Tileset> scale = scales.get(tileSize);
+        if (scale != null) {
+            hits++;
+            return scale;
+        }
+        misses++;
+        CompletableFuture<Tileset> future = CompletableFuture.supplyAsync(() -> original.scaled(tileSize));
+        scales.put(tileSize, future);
+        future.whenComplete((tileset, ex) -> {
+            if (ex != null) {
+                SwingUtilities.invokeLater(() -> {
+                    System.err.println("Scaling the tileset to " + tileSize + " px failed: " + ex.getCause());
+                    scales.remove(tileSize, future);
+                });
+            }
+        });
+        return future;
+    }
+    
+    /**
+     * @return the tileset scaled to the given size, or {@code null} if it is not ready yet
+     */
+    public Tileset getIfReady(int tileSize) {
+        CompletableFuture<Tileset> future = scales.get(tileSize);
+        return future != null && future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+    }
+    
+    public long getHits() {
+        return hits;
+    }
+    
+    public long getMisses() {
+        return misses;
+    }
+    
+    /**
+     * Starts scaling the given sizes in the background without waiting for them
+     */
+    public void prewarm(int... tileSizes) {
+        for (int tileSize : tileSizes) {
+            request(tileSize);
+        }
+    }
+    
+}
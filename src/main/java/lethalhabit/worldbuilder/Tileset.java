@@ -0,0 +1,106 @@
+package lethalhabit.worldbuilder;
+
+import org.imgscalr.Scalr;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The block, liquid and interactable images of every tile, all scaled to the same size and packed into one
+ * {@link TileAtlas} per layer
+ */
+public record Tileset(int tileSize, TileAtlas blocks, TileAtlas liquids, TileAtlas interactables) {
+    
+    /**
+     * Lists the images of a layer in index order, one file name per line; lines starting with '#' are ignored
+     */
+    public static final String MANIFEST = "manifest.txt";
+    
+    /**
+     * Loads the bundled tile images at their original size, works without a display.
+     * The images of every layer are listed by its {@link #MANIFEST} and decoded in parallel.
+     */
+    public static Tileset load() {
+        return new Tileset(WorldBuilder.OG_TILE_SIZE,
+                load("/tiles/", "tile"), load("/liquids/", "liquid"), load("/interactables/", "interactable"));
+    }
+    
+    private static TileAtlas load(String directory, String prefix) {
+        List<URL> resources = resources(directory, prefix);
+        List<BufferedImage> images = resources.parallelStream().map(Tileset::read).toList();
+        return new TileAtlas(images, WorldBuilder.OG_TILE_SIZE);
+    }
+    
+    /**
+     * @return the images listed by the manifest of the directory, or if it has none, the consecutively numbered images
+     * with the given prefix that exist
+     */
+    private static List<URL> resources(String directory, String prefix) {
+        List<URL> resources = new ArrayList<>();
+        InputStream manifest = Tileset.class.getResourceAsStream(directory + MANIFEST);
+        if (manifest == null) {
+            for (int i = 0; ; i++) {
+                URL resource = Tileset.class.getResource(directory + prefix + i + ".png");
+                if (resource == null) {
+                    return resources;
+                }
+                resources.add(resource);
+            }
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(manifest, StandardCharsets.UTF_8))) {
+            for (String line : reader.lines().map(String::strip).toList()) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                URL resource = Tileset.class.getResource(directory + line);
+                if (resource == null) {
+                    throw new IllegalStateException("Missing tile image " + directory + line);
+                }
+                resources.add(resource);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return resources;
+    }
+    
+    private static BufferedImage read(URL resource) {
+        try {
+            BufferedImage image = ImageIO.read(resource);
+            if (image == null) {
+                throw new IllegalStateException("Unreadable tile image " + resource);
+            }
+            return image;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+    
+    /**
+     * @return the number of images of all layers
+     */
+    public int size() {
+        return blocks.size() + liquids.size() + interactables.size();
+    }
+    
+    /**
+     * Resizes every image of this tileset, in parallel
+     */
+    public Tileset scaled(int tileSize) {
+        return new Tileset(tileSize, scale(blocks, tileSize), scale(liquids, tileSize), scale(interactables, tileSize));
+    }
+    
+    private static TileAtlas scale(TileAtlas images, int tileSize) {
+        return new TileAtlas(images.parallelStream().map(image -> Scalr.resize(image, tileSize, tileSize)).toList(), tileSize);
+    }
+    
+}
@@ -0,0 +1,213 @@
+package lethalhabit.worldbuilder;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Undo history that records the individual tile changes of each edit instead of snapshots of the whole world.
+ * Every change made to the observed world between {@link #begin()} and {@link #commit()} becomes one undo step.
+ * Undo and redo cost O(changes); the oldest steps are dropped once the history exceeds its memory budget.
+ * A single step that outgrows the budget on its own, e.g. reshaping a whole world, is not kept at all: the edit
+ * cannot be undone and the history before it is cleared, since undoing older steps would partly revert it.
+ */
+public final class UndoJournal {
+    
+    public static final int DEFAULT_MEMORY_BUDGET_MB = 64;
+    
+    /**
+     * Two coordinates plus the packed tile before and after the change
+     */
+    private static final int BYTES_PER_CHANGE = 2 * Integer.BYTES + 2 * Long.BYTES;
+    
+    private final WorldStore world;
+    private final long memoryBudget;
+    private final WorldStore.ChangeListener listener = this::record;
+    
+    private final Deque<Entry> undoStack = new ArrayDeque<>();
+    private final Deque<Entry> redoStack = new ArrayDeque<>();
+    
+    private Entry current = null;
+    private long memoryUsage = 0;
+    private boolean replaying = false;
+    
+    public UndoJournal(WorldStore world, long memoryBudget) {
+        this.world = world;
+        this.memoryBudget = memoryBudget;
+        world.addChangeListener(listener);
+    }
+    
+    public UndoJournal(WorldStore world) {
+        this(world, Integer.getInteger("worldbuilder.undoMemoryMB", DEFAULT_MEMORY_BUDGET_MB) * 1024L * 1024L);
+    }
+    
+    /**
+     * Stops recording the changes of the world, the history is discarded
+     */
+    public void close() {
+        world.removeChangeListener(listener);
+        current = null;
+        undoStack.clear();
+        redoStack.clear();
+        memoryUsage = 0;
+    }
+    
+    /**
+     * Starts a new undo step, closing the previous one if it is still open
+     */
+    public void begin() {
+        commit();
+        current = new Entry();
+    }
+    
+    /**
+     * Closes the current undo step; steps without any change are discarded
+     *
+     * @return {@code false} if the step exceeded the memory budget and the history was cleared instead
+     */
+    public boolean commit() {
+        Entry entry = current;
+        current = null;
+        if (entry == null) {
+            return true;
+        }
+        if (entry.overflowed) {
+            undoStack.clear();
+            redoStack.clear();
+            memoryUsage = 0;
+            return false;
+        }
+        if (entry.size == 0) {
+            return true;
+        }
+        entry.trim();
+        undoStack.push(entry);
+        memoryUsage += entry.memoryUsage();
+        clearRedo();
+        while (memoryUsage > memoryBudget && undoStack.size() > 1) {
+            memoryUsage -= undoStack.removeLast().memoryUsage();
+        }
+        return true;
+    }
+    
+    public boolean undo() {
+        commit();
+        Entry entry = undoStack.poll();
+        if (entry == null) {
+            return false;
+        }
+        replaying = true;
+        try {
+            for (int i = entry.size - 1; i >= 0; i--) {
+                world.setPackedTile(entry.xs[i], entry.ys[i], entry.before[i]);
+            }
+        } finally {
+            replaying = false;
+        }
+        redoStack.push(entry);
+        return true;
+    }
+    
+    public boolean redo() {
+        commit();
+        Entry entry = redoStack.poll();
+        if (entry == null) {
+            return false;
+        }
+        replaying = true;
+        try {
+            for (int i = 0; i < entry.size; i++) {
+                world.setPackedTile(entry.xs[i], entry.ys[i], entry.after[i]);
+            }
+        } finally {
+            replaying = false;
+        }
+        undoStack.push(entry);
+        return true;
+    }
+    
+    public boolean canUndo() {
+        return !undoStack.isEmpty() || (current != null && current.size > 0 && !current.overflowed);
+    }
+    
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+    
+    /**
+     * @return approximate number of bytes held by the undo and redo history
+     */
+    public long getMemoryUsage() {
+        return memoryUsage;
+    }
+    
+    private void clearRedo() {
+        while (!redoStack.isEmpty()) {
+            memoryUsage -= redoStack.pop().memoryUsage();
+        }
+    }
+    
+    private void record(int x, int y, long before, long after) {
+        if (replaying) {
+            return;
+        }
+        if (current == null) {
+            // changes outside an explicit step form their own step, closed by the next commit
+            current = new Entry();
+        }
+        if (current.overflowed) {
+            return;
+        }
+        if ((long) (current.size + 1) * BYTES_PER_CHANGE > memoryBudget) {
+            // stop recording rather than holding more than the whole budget in one step
+            current.overflow();
+            return;
+        }
+        current.add(x, y, before, after);
+    }
+    
+    private static final class Entry {
+        
+        private int size = 0;
+        private boolean overflowed = false;
+        private int[] xs = new int[16];
+        private int[] ys = new int[16];
+        private long[] before = new long[16];
+        private long[] after = new long[16];
+        
+        private void add(int x, int y, long before, long after) {
+            if (size == xs.length) {
+                int capacity = size * 2;
+                xs = Arrays.copyOf(xs, capacity);
+                ys = Arrays.copyOf(ys, capacity);
+                this.before = Arrays.copyOf(this.before, capacity);
+                this.after = Arrays.copyOf(this.after, capacity);
+            }
+            xs[size] = x;
+            ys[size] = y;
+            this.before[size] = before;
+            this.after[size] = after;
+            size++;
+        }
+        
+        private void overflow() {
+            overflowed = true;
+            size = 0;
+            xs = ys = null;
+            before = after = null;
+        }
+        
+        private void trim() {
+            xs = Arrays.copyOf(xs, size);
+            ys = Arrays.copyOf(ys, size);
+            before = Arrays.copyOf(before, size);
+            after = Arrays.copyOf(after, size);
+        }
+        
+        private long memoryUsage() {
+            return (long) size * BYTES_PER_CHANGE;
+        }
+        
+    }
+    
+}
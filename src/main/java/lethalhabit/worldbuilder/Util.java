@@ -1,6 +1,5 @@
 package lethalhabit.worldbuilder;
 
-import com.google.gson.Gson;
 import org.imgscalr.Scalr;
 
 import javax.imageio.ImageIO;
@@ -14,12 +13,8 @@ import java.awt.*;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
-import java.io.*;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.File;
+import java.io.IOException;
 import java.util.function.Consumer;
 
 public final class Util {
@@ -27,49 +22,34 @@ public final class Util {
     private Util() {
     }
     
-    public static Map<Integer, Map<Integer, Tile>> copyWorldData(Map<Integer, Map<Integer, Tile>> data) {
-        Map<Integer, Map<Integer, Tile>> copy = new HashMap<>();
-        for (Map.Entry<Integer, Map<Integer, Tile>> entry : data.entrySet()) {
-            copy.put(entry.getKey(), new HashMap<>(entry.getValue()));
-        }
-        return copy;
+    /**
+     * @return a copy of the world that later changes do not affect, a {@link WorldStore#snapshot() snapshot} unless
+     * the world is paged
+     */
+    public static WorldStore copyWorldData(WorldStore data) {
+        return data.isPaged() ? new WorldStore(data) : data.snapshot();
     }
     
-    public static Map<Integer, Map<Integer, Tile>> readWorldData(File worldFile) {
+    public static WorldStore readWorldData(File worldFile) {
         try {
-            return readWorldData(new FileInputStream(worldFile));
-        } catch (FileNotFoundException ex) {
+            return WorldFormat.readDetected(worldFile.toPath());
+        } catch (IOException ex) {
             JOptionPane.showMessageDialog(null, "World data could not be loaded.", "Fatal Error", JOptionPane.ERROR_MESSAGE);
             System.exit(1);
-            return new HashMap<>();
+            return new WorldStore();
         }
     }
     
-    public static Map<Integer, Map<Integer, Tile>> readWorldData(InputStream stream) {
-        Map<Integer, Map<Integer, Tile>> worldData = new HashMap<>();
-        try {
-            String json = new String(stream.readAllBytes(), StandardCharsets.UTF_8);
-            Gson gson = new Gson();
-            Map<String, Map<String, Map<String, Double>>> strings = gson.fromJson(json, Map.class);
-            for (Map.Entry<String, Map<String, Map<String, Double>>> entry : strings.entrySet()) {
-                int key = Integer.parseInt(entry.getKey());
-                Map<Integer, Tile> value = new HashMap<>();
-                for (Map.Entry<String, Map<String, Double>> entryInner : entry.getValue().entrySet()) {
-                    int keyInner = Integer.parseInt(entryInner.getKey());
-                    Tile valueInner = new Tile(
-                            entryInner.getValue().getOrDefault("block", -1D).intValue(),
-                            entryInner.getValue().getOrDefault("liquid", -1D).intValue(),
-                            entryInner.getValue().getOrDefault("interactable", -1D).intValue()
-                    );
-                    value.put(keyInner, valueInner);
-                }
-                worldData.put(key, value);
+    public static FileFilter worldFileFilter() {
+        return new FileFilter() {
+            public boolean accept(File f) {
+                return f.isDirectory() || f.getName().endsWith(WorldFormat.BINARY.extension) || f.getName().endsWith(WorldFormat.JSON.extension) || f.getName().endsWith(WorldFormat.REGION.extension);
             }
-        } catch (IOException ex) {
-            JOptionPane.showMessageDialog(null, "World data could not be loaded.", "Fatal Error", JOptionPane.ERROR_MESSAGE);
-            System.exit(1);
-        }
-        return worldData;
+            
+            public String getDescription() {
+                return "World Files (.lhw, .json, .lhwr)";
+            }
+        };
     }
     
     public static FileFilter jsonFileFilter() {
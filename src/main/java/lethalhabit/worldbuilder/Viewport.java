@@ -0,0 +1,59 @@
+package lethalhabit.worldbuilder;
+
+/**
+ * Maps between tile coordinates and screen pixels for a given camera position and zoom level.
+ * The visible tile range only depends on the size of the view, not on where the camera is.
+ */
+public record Viewport(int cameraX, int cameraY, int tileSize, int width, int height) {
+    
+    public Viewport(Camera camera, int tileSize) {
+        this(camera.getPosition().x(), camera.getPosition().y(), tileSize, WorldBuilder.WIDTH, WorldBuilder.HEIGHT);
+    }
+    
+    private int columnOffset() {
+        return (width / 2) / tileSize + 1;
+    }
+    
+    private int rowOffset() {
+        return (height / 2) / tileSize;
+    }
+    
+    public int screenX(int column) {
+        return (column + columnOffset()) * tileSize - cameraX;
+    }
+    
+    public int screenY(int row) {
+        return (row + rowOffset()) * tileSize - cameraY;
+    }
+    
+    public int columnAt(int screenX) {
+        return Math.floorDiv(screenX + cameraX, tileSize) - columnOffset();
+    }
+    
+    public int rowAt(int screenY) {
+        return Math.floorDiv(screenY + cameraY, tileSize) - rowOffset();
+    }
+    
+    /**
+     * First column that is at least partially visible, never negative
+     */
+    public int minColumn() {
+        return Math.max(0, columnAt(0));
+    }
+    
+    public int maxColumn() {
+        return columnAt(width);
+    }
+    
+    /**
+     * First row that is at least partially visible, never negative
+     */
+    public int minRow() {
+        return Math.max(0, rowAt(0));
+    }
+    
+    public int maxRow() {
+        return rowAt(height);
+    }
+    
+}
@@ -1,16 +1,12 @@
 package lethalhabit.worldbuilder;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
 import javax.swing.*;
+import javax.swing.Timer;
 import java.awt.*;
 import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static lethalhabit.worldbuilder.Util.*;
 
@@ -19,25 +15,54 @@ public final class WorldBuilder {
     public static final int OG_TILE_SIZE = 100;
     public static int TILE_SIZE = 100;
     
-    public static final int WIDTH = Toolkit.getDefaultToolkit().getScreenSize().width;
-    public static final int HEIGHT = Toolkit.getDefaultToolkit().getScreenSize().height;
+    /**
+     * Size of the screen, or of a full HD screen when running headless
+     */
+    public static final int WIDTH = GraphicsEnvironment.isHeadless() ? 1920 : Toolkit.getDefaultToolkit().getScreenSize().width;
+    public static final int HEIGHT = GraphicsEnvironment.isHeadless() ? 1080 : Toolkit.getDefaultToolkit().getScreenSize().height;
     
     public static final int TILE_GROUP_SIZE = 16;
     public static final int LIQUID_GROUP_SIZE = 2;
     
+    /**
+     * Seconds between autosaves, unless set with {@code worldbuilder.autosaveSeconds}, 0 turns autosaving off
+     */
+    public static final int DEFAULT_AUTOSAVE_SECONDS = 120;
+    
     public static final WorldBuilder INSTANCE = new WorldBuilder();
     
-    private Map<Integer, Map<Integer, Tile>> lastSavedWorldData = new HashMap<>();
-    private Map<Integer, Map<Integer, Tile>> worldData = new HashMap<>();
+    private final WorldSaver saver = new WorldSaver();
+    
+    private WorldStore worldData = new WorldStore();
+    
+    /**
+     * File the world was last loaded from or completely saved to, it holds the world as it is apart from its dirty
+     * chunks. Only changed once a save has succeeded.
+     */
+    private Path worldFile = null;
+    
+    /**
+     * Complete saves submitted so far and not finished yet; while one is running the dirty chunks belong to it, so no
+     * save can be incremental
+     */
+    private long fullSaves = 0;
+    private int pendingFullSaves = 0;
+    private long autosavedModificationCount = 0;
     
+    /**
+     * Opens the editor, or runs a {@link BatchTool} command without any UI if arguments are given
+     */
     public static void main(String[] args) {
+        if (args.length > 0) {
+            System.exit(BatchTool.run(args));
+        }
         INSTANCE.start();
     }
     
     public void start() {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Open world file");
-        fileChooser.setFileFilter(jsonFileFilter());
+        fileChooser.setFileFilter(worldFileFilter());
         JButton createNewButton = new JButton("Create New");
         createNewButton.addActionListener(e -> {
             fileChooser.approveSelection();
@@ -47,107 +72,141 @@ public final class WorldBuilder {
         if (result == JFileChooser.APPROVE_OPTION) {
             if (fileChooser.getSelectedFile() != null) {
                 worldData = readWorldData(fileChooser.getSelectedFile());
-                lastSavedWorldData = readWorldData(fileChooser.getSelectedFile());
+                worldFile = fileChooser.getSelectedFile().toPath();
             }
             new Editor();
+            EditorStats.INSTANCE.register();
+            startAutosave();
         } else if (result == JFileChooser.CANCEL_OPTION) {
             System.exit(0);
         }
     }
     
-    public int saveWorldData(File worldFile) {
-        try {
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            String output = gson.toJson(worldData);
-            Files.writeString(Path.of(worldFile.getPath()), output);
-            lastSavedWorldData = copyWorldData(worldData);
-            return 0;
-        } catch (IOException ex) {
-            JOptionPane.showMessageDialog(null, "World data could not be saved.", "Fatal Error", JOptionPane.ERROR_MESSAGE);
-            return 1;
+    /**
+     * Takes a snapshot of the world and writes it in the background, the editor can be used while it is written.
+     * Saving to the file the world was loaded from or last completely saved to only rewrites the chunks that changed
+     * since, unless another complete save is still running. The world is only considered to be in a file once it has
+     * been written successfully.
+     * Paged worlds stay in their region files, their changes are written back and flushed, and saving them to another
+     * file exports them from a {@link WorldStore#openView() view} instead of a snapshot.
+     * An error message is shown if the world could not be saved.
+     *
+     * @return completes once the file is written, exceptionally if it could not be written
+     */
+    public CompletableFuture<Void> saveWorldData(File file) {
+        Path target = file.toPath();
+        boolean incremental = worldFile != null && worldFile.toAbsolutePath().equals(target.toAbsolutePath()) && pendingFullSaves == 0;
+        Set<Long> changedChunks;
+        CompletableFuture<Void> save;
+        if (worldData.isPaged()) {
+            changedChunks = worldData.writeBack();
+            save = saver.flush(worldData.getBackend());
+            if (!incremental) {
+                WorldStore view = worldData.openView();
+                save = save.thenCompose(result -> saver.save(view, target));
+            }
+        } else {
+            WorldStore snapshot = copyWorldData(worldData);
+            changedChunks = worldData.takeDirtyChunks();
+            save = saver.save(snapshot, target, incremental ? changedChunks : null);
+            if (!incremental) {
+                long generation = ++fullSaves;
+                pendingFullSaves++;
+                save = save.whenComplete((result, ex) -> SwingUtilities.invokeLater(() -> {
+                    pendingFullSaves--;
+                    // a later complete save took the dirty chunks from the world, the file is not in sync with them
+                    if (ex == null && generation == fullSaves) {
+                        worldFile = target;
+                    }
+                }));
+            }
         }
+        return save.whenComplete((result, ex) -> {
+            if (ex != null) {
+                SwingUtilities.invokeLater(() -> {
+                    worldData.markDirty(changedChunks);
+                    JOptionPane.showMessageDialog(null, "World data could not be saved.", "Fatal Error", JOptionPane.ERROR_MESSAGE);
+                });
+            }
+        });
     }
     
-    private static int getBlockOrientationOffset(int chunkX, int chunkY) {
-        boolean above = WorldBuilder.INSTANCE.getWorldData().get(chunkX).getOrDefault(chunkY - 1, Tile.EMPTY).block < 0;
-        boolean below = WorldBuilder.INSTANCE.getWorldData().get(chunkX).getOrDefault(chunkY + 1, Tile.EMPTY).block < 0;
-        boolean left = WorldBuilder.INSTANCE.getWorldData().getOrDefault(chunkX - 1, new HashMap<>()).getOrDefault(chunkY, Tile.EMPTY).block < 0;
-        boolean right = WorldBuilder.INSTANCE.getWorldData().getOrDefault(chunkX + 1, new HashMap<>()).getOrDefault(chunkY, Tile.EMPTY).block < 0;
-        if (above) {
-            if (below) {
-                if (left) {
-                    return right ? 15 : 12;
-                } else {
-                    return right ? 14 : 13;
-                }
-            } else {
-                if (left) {
-                    return right ? 11 : 8;
-                } else {
-                    return right ? 10 : 9;
+    /**
+     * @return whether the world changed since it was loaded or last saved
+     */
+    public boolean hasUnsavedChanges() {
+        return worldData.isDirty();
+    }
+    
+    private void startAutosave() {
+        int seconds = Integer.getInteger("worldbuilder.autosaveSeconds", DEFAULT_AUTOSAVE_SECONDS);
+        if (seconds > 0) {
+            autosavedModificationCount = worldData.getModificationCount();
+            new Timer(seconds * 1000, e -> autosave()).start();
+        }
+    }
+    
+    /**
+     * Writes a snapshot to the {@link #getAutosaveFile() autosave file} if the world changed since the last autosave,
+     * and no other save is still being written. Paged worlds are saved in place instead, they are too large to be
+     * copied.
+     */
+    private void autosave() {
+        if (saver.isBusy() || worldData.getModificationCount() == autosavedModificationCount) {
+            return;
+        }
+        autosavedModificationCount = worldData.getModificationCount();
+        CompletableFuture<Void> save;
+        if (worldData.isPaged()) {
+            Set<Long> changedChunks = worldData.writeBack();
+            save = saver.flush(worldData.getBackend()).whenComplete((result, ex) -> {
+                if (ex != null) {
+                    SwingUtilities.invokeLater(() -> worldData.markDirty(changedChunks));
                 }
-            }
+            });
         } else {
-            if (below) {
-                if (left) {
-                    return right ? 3 : 4;
-                } else {
-                    return right ? 2 : 5;
-                }
-            } else {
-                if (left) {
-                    return right ? 7 : 6;
-                } else {
-                    return right ? 1 : 0;
-                }
-            }
+            save = saver.save(copyWorldData(worldData), getAutosaveFile());
         }
+        save.exceptionally(ex -> {
+            System.err.println("Autosave failed: " + ex.getMessage());
+            return null;
+        });
     }
     
-    private static int getLiquidOrientationOffset(int chunkX, int chunkY) {
-        int above = WorldBuilder.INSTANCE.getWorldData().get(chunkX).getOrDefault(chunkY - 1, Tile.EMPTY).liquid;
-        if (above >= 0) {
-            return 0;
-        } else {
-            return 1;
+    /**
+     * @return the file next to the current world file that autosaves go to, or one in the home directory if the world
+     * has not been saved yet
+     */
+    public Path getAutosaveFile() {
+        if (worldFile == null) {
+            return Path.of(System.getProperty("user.home"), "lethalhabit-autosave" + WorldFormat.BINARY.extension);
         }
+        String name = worldFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return worldFile.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + ".autosave" + WorldFormat.BINARY.extension);
     }
     
     public void autoShapeChunk(int chunkX, int chunkY, boolean suppressAdjacentUpdates) {
-        Map<Integer, Tile> column = getWorldData().getOrDefault(chunkX, new HashMap<>());
-        Tile currentTile = new Tile(column.getOrDefault(chunkY, Tile.EMPTY));
-        if (!currentTile.equals(Tile.EMPTY)) {
-            int liquidIndex = -1;
-            int blockIndex = -1;
-            if (currentTile.liquid >= 0) {
-                liquidIndex = (currentTile.liquid / LIQUID_GROUP_SIZE) * LIQUID_GROUP_SIZE + getLiquidOrientationOffset(chunkX, chunkY);
-            }
-            if (currentTile.block >= 0) {
-                blockIndex = (currentTile.block / TILE_GROUP_SIZE) * TILE_GROUP_SIZE + getBlockOrientationOffset(chunkX, chunkY);
-            }
-            if (liquidIndex != currentTile.liquid || blockIndex != currentTile.block) {
-                column.put(chunkY, new Tile(blockIndex, liquidIndex, currentTile.interactable));
-                getWorldData().put(chunkX, column);
-            }
-        }
-        if (!suppressAdjacentUpdates) {
-            autoShapeChunk(chunkX + 1, chunkY, true);
-            autoShapeChunk(chunkX - 1, chunkY, true);
-            autoShapeChunk(chunkX, chunkY + 1, true);
-            autoShapeChunk(chunkX, chunkY - 1, true);
+        if (suppressAdjacentUpdates) {
+            AutoShaper.shapeTile(worldData, chunkX, chunkY);
+        } else {
+            AutoShaper.shapeNeighbourhood(worldData, chunkX, chunkY);
         }
     }
     
-    public Map<Integer, Map<Integer, Tile>> getWorldData() {
-        return worldData;
+    /**
+     * @return the file the world was loaded from or last completely saved to, {@code null} for a new world
+     */
+    public Path getWorldFile() {
+        return worldFile;
     }
     
-    public void setWorldData(Map<Integer, Map<Integer, Tile>> worldData) {
-        this.worldData = worldData;
+    public WorldStore getWorldData() {
+        return worldData;
     }
     
-    public Map<Integer, Map<Integer, Tile>> getLastSavedWorldData() {
-        return lastSavedWorldData;
+    public void setWorldData(WorldStore worldData) {
+        this.worldData = worldData;
     }
     
     private WorldBuilder() { }
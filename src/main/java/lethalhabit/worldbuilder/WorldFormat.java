@@ -0,0 +1,145 @@
+package lethalhabit.worldbuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The file formats a world can be stored in
+ */
+public enum WorldFormat {
+    
+    JSON(".json") {
+        @Override
+        public WorldStore read(Path file) throws IOException {
+            try (InputStream stream = new BufferedInputStream(Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ)))) {
+                return JsonWorldFormat.read(stream);
+            }
+        }
+        
+        @Override
+        public void write(WorldStore world, Path file) throws IOException {
+            try (OutputStream stream = new BufferedOutputStream(Channels.newOutputStream(FileChannel.open(file, WRITE_OPTIONS)))) {
+                JsonWorldFormat.write(world, stream);
+            }
+        }
+    },
+    
+    BINARY(".lhw") {
+        @Override
+        public WorldStore read(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                return BinaryWorldFormat.read(channel);
+            }
+        }
+        
+        @Override
+        public void write(WorldStore world, Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, WRITE_OPTIONS)) {
+                BinaryWorldFormat.write(world, channel, BinaryWorldFormat.isCompressedByDefault());
+            }
+        }
+    },
+    
+    /**
+     * Region worlds are not read into memory, reading one opens a {@link WorldStore#isPaged() paged} world on its
+     * region files
+     */
+    REGION(RegionFileBackend.EXTENSION) {
+        @Override
+        public WorldStore read(Path file) throws IOException {
+            return new WorldStore(RegionFileBackend.open(file), WorldStore.configuredResidentLimit());
+        }
+        
+        /**
+         * Writing a paged world to its own index file writes back its changed chunks and flushes them
+         */
+        @Override
+        public void write(WorldStore world, Path file) throws IOException {
+            if (world.getBackend() instanceof RegionFileBackend backend && backend.getIndexFile().equals(file.toAbsolutePath())) {
+                world.writeBack();
+                backend.flush();
+                return;
+            }
+            try (RegionFileBackend backend = RegionFileBackend.create(file)) {
+                world.forEachChunk(backend::store);
+            }
+        }
+    };
+    
+    private static final StandardOpenOption[] WRITE_OPTIONS = {StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING};
+    
+    public final String extension;
+    
+    WorldFormat(String extension) {
+        this.extension = extension;
+    }
+    
+    public abstract WorldStore read(Path file) throws IOException;
+    
+    public abstract void write(WorldStore world, Path file) throws IOException;
+    
+    /**
+     * Determines the format of an existing file from its first bytes
+     */
+    public static WorldFormat detect(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    break;
+                }
+            }
+            if (header.position() < Integer.BYTES) {
+                return JSON;
+            }
+            return switch (header.getInt(0)) {
+                case BinaryWorldFormat.MAGIC -> BINARY;
+                case RegionFileBackend.MAGIC -> REGION;
+                default -> JSON;
+            };
+        }
+    }
+    
+    /**
+     * Chooses the format to write a file in from its name, files without a known extension are written as JSON
+     */
+    public static WorldFormat forFileName(String name) {
+        if (name.endsWith(REGION.extension)) {
+            return REGION;
+        }
+        return name.endsWith(BINARY.extension) ? BINARY : JSON;
+    }
+    
+    public static WorldStore readDetected(Path file) throws IOException {
+        long start = System.nanoTime();
+        EditorEvents.LoadEvent event = new EditorEvents.LoadEvent();
+        event.begin();
+        WorldFormat format = detect(file);
+        WorldStore world = format.read(file);
+        event.end();
+        EditorStats.INSTANCE.recordLoad(System.nanoTime() - start);
+        if (event.shouldCommit()) {
+            event.file = file.toString();
+            event.format = format.name();
+            event.tiles = world.getTileCount();
+            event.commit();
+        }
+        return world;
+    }
+    
+    /**
+     * Reads a world file in whatever format it is in and writes it in the format matching the target name
+     */
+    public static void convert(Path source, Path target) throws IOException {
+        forFileName(target.getFileName().toString()).write(readDetected(source), target);
+    }
+    
+}
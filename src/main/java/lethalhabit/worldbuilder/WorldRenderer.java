@@ -0,0 +1,116 @@
+package lethalhabit.worldbuilder;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+
+/**
+ * Draws the tiles of a world that intersect a {@link Viewport}.
+ * Whole chunks are blitted from a {@link ChunkImageCache}, or the visible sections of them at zoom levels where a
+ * chunk image would be too large. Tiles are stretched to the viewport's tile size if the tileset has a different size,
+ * e.g. while the tileset for a new zoom level is still being scaled.
+ * A translucent renderer draws every layer with the given opacity, its cached chunk images are translucent already.
+ * Below {@link #LOD_TILE_SIZE} regions of several chunks are blitted from a {@link RegionImageCache} instead.
+ */
+public final class WorldRenderer {
+    
+    /**
+     * Tile size (in pixels) below which the world is rendered at a lower level of detail, can be set with the
+     * system property {@code worldbuilder.lodTileSize}
+     */
+    public static final int LOD_TILE_SIZE = Integer.getInteger("worldbuilder.lodTileSize", 16);
+    
+    private final ChunkImageCache chunkCache;
+    private final RegionImageCache regionCache;
+    
+    private long cellsVisited = 0;
+    private long tilesDrawn = 0;
+    
+    public WorldRenderer(float alpha) {
+        this.chunkCache = new ChunkImageCache(alpha);
+        this.regionCache = new RegionImageCache(alpha);
+    }
+    
+    public WorldRenderer() {
+        this(1f);
+    }
+    
+    /**
+     * @return whether tiles of the given size are too small for details: the world is drawn from downsampled region
+     * images, and the grid and tile indices are left out
+     */
+    public static boolean isLowDetail(int tileSize) {
+        return tileSize < LOD_TILE_SIZE;
+    }
+    
+    public void drawTiles(Graphics g, WorldStore world, Viewport viewport, Tileset tileset) {
+        int tileSize = viewport.tileSize();
+        cellsVisited = 0;
+        tilesDrawn = 0;
+        if (isLowDetail(tileSize)) {
+            int regionSize = RegionImageCache.regionSize(tileSize);
+            for (int regionY = (viewport.minRow() >> Chunk.SHIFT) / regionSize; regionY <= (viewport.maxRow() >> Chunk.SHIFT) / regionSize; regionY++) {
+                for (int regionX = (viewport.minColumn() >> Chunk.SHIFT) / regionSize; regionX <= (viewport.maxColumn() >> Chunk.SHIFT) / regionSize; regionX++) {
+                    BufferedImage image = regionCache.get(world, regionX, regionY, tileSize, tileset);
+                    cellsVisited += (long) regionSize * regionSize * Chunk.AREA;
+                    if (image != null) {
+                        tilesDrawn += regionCache.getTileCount();
+                        g.drawImage(image, viewport.screenX(regionX * regionSize * Chunk.SIZE), viewport.screenY(regionY * regionSize * Chunk.SIZE), null);
+                    }
+                }
+            }
+        } else {
+            int sectionSize = ChunkImageCache.sectionSize(tileSize);
+            for (int sectionY = Math.floorDiv(viewport.minRow(), sectionSize); sectionY <= Math.floorDiv(viewport.maxRow(), sectionSize); sectionY++) {
+                for (int sectionX = Math.floorDiv(viewport.minColumn(), sectionSize); sectionX <= Math.floorDiv(viewport.maxColumn(), sectionSize); sectionX++) {
+                    int x = sectionX * sectionSize, y = sectionY * sectionSize;
+                    Chunk chunk = world.getChunk(x >> Chunk.SHIFT, y >> Chunk.SHIFT);
+                    cellsVisited += sectionSize * sectionSize;
+                    if (chunk != null) {
+                        BufferedImage image = chunkCache.get(chunk, sectionX, sectionY, tileSize, tileset);
+                        tilesDrawn += chunkCache.getTileCount();
+                        g.drawImage(image, viewport.screenX(x), viewport.screenY(y), null);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Draws the liquid, block and interactable of one cell, in that order
+     */
+    static void drawTile(Graphics g, Chunk chunk, int index, int x, int y, int tileSize, Tileset tileset) {
+        int block = chunk.getBlock(index), liquid = chunk.getLiquid(index), interactable = chunk.getInteractable(index);
+        if (liquid >= 0 && liquid < tileset.liquids().size()) {
+            tileset.liquids().draw(g, liquid, x, y, tileSize);
+        }
+        if (block >= 0 && block < tileset.blocks().size()) {
+            tileset.blocks().draw(g, block, x, y, tileSize);
+        }
+        if (interactable >= 0 && interactable < tileset.interactables().size()) {
+            tileset.interactables().draw(g, interactable, x, y, tileSize);
+        }
+    }
+    
+    public ChunkImageCache getChunkCache() {
+        return chunkCache;
+    }
+    
+    public RegionImageCache getRegionCache() {
+        return regionCache;
+    }
+    
+    /**
+     * @return the number of cells the last {@link #drawTiles} call looked at, whole chunks count with all of their cells
+     */
+    public long getCellsVisited() {
+        return cellsVisited;
+    }
+    
+    /**
+     * @return the number of occupied cells the last {@link #drawTiles} call drew as part of chunk, section or region images
+     */
+    public long getTilesDrawn() {
+        return tilesDrawn;
+    }
+    
+}
@@ -0,0 +1,160 @@
+package lethalhabit.worldbuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes world snapshots on a background thread, one at a time and in the order they were submitted.
+ * Binary files that only need a few chunks rewritten are {@link BinaryWorldFormat#update updated} in place.
+ * Otherwise the world goes to a temporary file next to the target first, which then replaces the target in a single
+ * atomic rename, so a crash in the middle of a save never leaves a truncated world file behind. Region worlds consist
+ * of several files and are written directly.
+ */
+public final class WorldSaver {
+    
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "world-saver");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private final AtomicInteger pending = new AtomicInteger();
+    
+    /**
+     * Saves the whole snapshot in the format matching the file name. The snapshot must not be modified afterwards.
+     *
+     * @return completes once the file has been replaced, or exceptionally if it could not be written
+     */
+    public CompletableFuture<Void> save(WorldStore snapshot, Path file) {
+        return save(snapshot, file, null);
+    }
+    
+    /**
+     * Saves the snapshot in the format matching the file name. The snapshot must not be modified afterwards.
+     *
+     * @param changedChunks keys of the chunks that changed since the snapshot was last loaded from or saved to the
+     *                      file, or {@code null} if the file has to be written completely
+     * @return completes once the file has been written, or exceptionally if it could not be written
+     */
+    public CompletableFuture<Void> save(WorldStore snapshot, Path file, Set<Long> changedChunks) {
+        pending.incrementAndGet();
+        return CompletableFuture.runAsync(() -> {
+            long start = System.nanoTime();
+            EditorEvents.SaveEvent event = new EditorEvents.SaveEvent();
+            event.begin();
+            try {
+                if (changedChunks != null && update(snapshot, file, changedChunks)) {
+                    event.changedChunks = changedChunks.size();
+                } else {
+                    write(snapshot, file);
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } finally {
+                finish(event, start, file);
+            }
+        }, executor);
+    }
+    
+    /**
+     * Forces the changes written to a backend onto disk, after all saves submitted before
+     *
+     * @return completes once the backend is flushed, or exceptionally if it could not be flushed
+     */
+    public CompletableFuture<Void> flush(ChunkBackend backend) {
+        pending.incrementAndGet();
+        return CompletableFuture.runAsync(() -> {
+            long start = System.nanoTime();
+            EditorEvents.SaveEvent event = new EditorEvents.SaveEvent();
+            event.begin();
+            try {
+                backend.flush();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } finally {
+                finish(event, start, backend instanceof RegionFileBackend region ? region.getIndexFile() : null);
+            }
+        }, executor);
+    }
+    
+    private void finish(EditorEvents.SaveEvent event, long start, Path file) {
+        event.end();
+        EditorStats.INSTANCE.recordSave(System.nanoTime() - start);
+        if (event.shouldCommit()) {
+            event.file = String.valueOf(file);
+            event.commit();
+        }
+        pending.decrementAndGet();
+    }
+    
+    private static boolean update(WorldStore snapshot, Path file, Set<Long> changedChunks) throws IOException {
+        if (WorldFormat.forFileName(file.getFileName().toString()) != WorldFormat.BINARY || !Files.isRegularFile(file)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return BinaryWorldFormat.update(channel, snapshot, changedChunks);
+        }
+    }
+    
+    /**
+     * Writes a world in the format matching the file name to a temporary file next to it, which then replaces the file,
+     * so that the file is never left half written. Region worlds are written in place.
+     */
+    static void write(WorldStore snapshot, Path file) throws IOException {
+        Path target = file.toAbsolutePath();
+        WorldFormat format = WorldFormat.forFileName(target.getFileName().toString());
+        if (format == WorldFormat.REGION) {
+            format.write(snapshot, target);
+            return;
+        }
+        replace(target, temp -> format.write(snapshot, temp));
+    }
+    
+    /**
+     * Writes a temporary file next to the target, which then replaces the target in a single atomic rename where the
+     * file system supports it
+     */
+    static void replace(Path file, FileWriter writer) throws IOException {
+        Path target = file.toAbsolutePath();
+        Path temp = target.resolveSibling("." + target.getFileName() + ".tmp");
+        try {
+            writer.write(temp);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    /**
+     * @return whether a save has been submitted and not finished yet
+     */
+    public boolean isBusy() {
+        return pending.get() > 0;
+    }
+    
+    @FunctionalInterface
+    interface FileWriter {
+        
+        /**
+         * Writes the complete contents to the file
+         */
+        void write(Path file) throws IOException;
+        
+    }
+    
+}
@@ -0,0 +1,670 @@
+package lethalhabit.worldbuilder;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Sparse world storage made of fixed-size {@link Chunk chunks}.
+ * Lookups and writes are O(1); chunks without any occupied cell are dropped. Not thread-safe.
+ * <p>
+ * A paged world keeps only part of its chunks in memory and reads the others from a {@link ChunkBackend} when they
+ * are looked up. Once more than its resident limit are in memory, the least recently used quarter is evicted, changed
+ * chunks are written back to the backend first. Whole-world operations such as {@link #forEachTile} and
+ * {@link #getBounds} read every chunk without keeping them in memory.
+ */
+public final class WorldStore {
+    
+    /**
+     * Resident limit of paged worlds unless set with {@code worldbuilder.residentChunks}, about 100 MB of chunks
+     */
+    public static final int DEFAULT_RESIDENT_CHUNKS = 65536;
+    
+    /**
+     * Paged worlds always keep at least this many chunks, enough for a screen full of chunks and their neighbours
+     */
+    private static final int MIN_RESIDENT_CHUNKS = 1024;
+    
+    private final Map<Long, Chunk> chunks = new HashMap<>();
+    
+    /**
+     * Where chunks that are not in memory are paged in from, {@code null} if the whole world is in memory
+     */
+    private final ChunkBackend backend;
+    private final int residentLimit;
+    
+    /**
+     * Incremented on every chunk lookup, chunks remember when they were last looked up
+     */
+    private long accessClock = 0;
+    
+    /**
+     * Most recently accessed chunk, consecutive accesses tend to hit the same one
+     */
+    private Chunk lastChunk = null;
+    
+    private final List<ChangeListener> listeners = new ArrayList<>();
+    
+    private long tileCount = 0;
+    private long modificationCount = 0;
+    
+    /**
+     * Incremented by every {@link #snapshot()}, chunks of an older generation may be shared with a snapshot
+     */
+    private int generation = 0;
+    
+    /**
+     * Keys of the chunks that changed since the world was last loaded or saved
+     */
+    private Set<Long> dirtyChunks = new HashSet<>();
+    
+    public WorldStore() {
+        this.backend = null;
+        this.residentLimit = Integer.MAX_VALUE;
+    }
+    
+    /**
+     * Copies another world completely into memory, a paged world is read chunk by chunk
+     */
+    public WorldStore(WorldStore other) {
+        this();
+        other.forEachChunk(chunk -> chunks.put(chunk.key(), new Chunk(chunk)));
+        this.tileCount = other.tileCount;
+        this.dirtyChunks.addAll(other.dirtyChunks);
+    }
+    
+    /**
+     * Takes a copy-on-write snapshot of the world in memory. The snapshot shares every chunk with this world, only the
+     * chunk table is copied, and a shared chunk is copied the first time either of the two changes it. So a snapshot
+     * is cheap to take, and may be read from another thread while this world is changed. It starts without any dirty
+     * chunks.
+     *
+     * @throws IllegalStateException if the world is paged, paged worlds are {@link #openView() viewed} instead
+     */
+    public WorldStore snapshot() {
+        if (backend != null) {
+            throw new IllegalStateException("Paged worlds cannot be snapshotted");
+        }
+        WorldStore snapshot = new WorldStore();
+        snapshot.chunks.putAll(chunks);
+        snapshot.tileCount = tileCount;
+        snapshot.generation = ++generation;
+        return snapshot;
+    }
+    
+    /**
+     * Creates a paged world whose chunks are stored in the backend
+     *
+     * @param residentLimit number of chunks that may be in memory at once
+     */
+    public WorldStore(ChunkBackend backend, int residentLimit) {
+        this.backend = backend;
+        this.residentLimit = Math.max(MIN_RESIDENT_CHUNKS, residentLimit);
+        this.tileCount = backend.getTileCount();
+    }
+    
+    /**
+     * @return the resident limit configured with {@code worldbuilder.residentChunks}
+     */
+    public static int configuredResidentLimit() {
+        return Integer.getInteger("worldbuilder.residentChunks", DEFAULT_RESIDENT_CHUNKS);
+    }
+    
+    public static WorldStore fromMap(Map<Integer, Map<Integer, Tile>> data) {
+        WorldStore store = new WorldStore();
+        for (Map.Entry<Integer, Map<Integer, Tile>> column : data.entrySet()) {
+            for (Map.Entry<Integer, Tile> row : column.getValue().entrySet()) {
+                store.setTile(column.getKey(), row.getKey(), row.getValue());
+            }
+        }
+        return store;
+    }
+    
+    public Map<Integer, Map<Integer, Tile>> toMap() {
+        Map<Integer, Map<Integer, Tile>> data = new HashMap<>();
+        forEachTile((x, y, block, liquid, interactable) -> data.computeIfAbsent(x, k -> new HashMap<>()).put(y, new Tile(block, liquid, interactable)));
+        return data;
+    }
+    
+    /**
+     * Looks up a chunk, paging it in from the backend if it is not in memory
+     */
+    public Chunk getChunk(int chunkX, int chunkY) {
+        Chunk chunk = lastChunk;
+        if (chunk != null && chunk.x == chunkX && chunk.y == chunkY) {
+            chunk.lastAccess = ++accessClock;
+            return chunk;
+        }
+        chunk = chunks.get(Chunk.key(chunkX, chunkY));
+        if (chunk == null && backend != null) {
+            chunk = pageIn(chunkX, chunkY);
+        }
+        if (chunk != null) {
+            chunk.lastAccess = ++accessClock;
+            lastChunk = chunk;
+        }
+        return chunk;
+    }
+    
+    private Chunk pageIn(int chunkX, int chunkY) {
+        Chunk chunk = backend.load(chunkX, chunkY);
+        if (chunk != null) {
+            chunk.markStored();
+            makeResident(chunk);
+        }
+        return chunk;
+    }
+    
+    private void makeResident(Chunk chunk) {
+        if (chunks.size() >= residentLimit) {
+            evict();
+        }
+        chunks.put(chunk.key(), chunk);
+    }
+    
+    /**
+     * Drops the least recently used quarter of the resident chunks, writing back the ones that changed
+     */
+    private void evict() {
+        long[] accesses = new long[chunks.size()];
+        int i = 0;
+        for (Chunk chunk : chunks.values()) {
+            accesses[i++] = chunk.lastAccess;
+        }
+        Arrays.sort(accesses);
+        long threshold = accesses[accesses.length / 4];
+        chunks.values().removeIf(chunk -> {
+            if (chunk.lastAccess > threshold) {
+                return false;
+            }
+            if (chunk.isModified()) {
+                backend.store(chunk);
+                chunk.markStored();
+            }
+            return true;
+        });
+        lastChunk = null;
+    }
+    
+    /**
+     * @return the chunk itself, or a copy that replaces it in this world if it may be shared with a snapshot
+     */
+    private Chunk writable(Chunk chunk) {
+        if (chunk.generation == generation) {
+            return chunk;
+        }
+        Chunk copy = new Chunk(chunk);
+        copy.generation = generation;
+        copy.lastAccess = chunk.lastAccess;
+        chunks.put(copy.key(), copy);
+        if (lastChunk == chunk) {
+            lastChunk = copy;
+        }
+        return copy;
+    }
+    
+    /**
+     * Looks up a chunk in memory without touching the lookup cache or paging anything in, so it may be called from
+     * several threads at once as long as the world is not modified meanwhile
+     */
+    Chunk peekChunk(int chunkX, int chunkY) {
+        return chunks.get(Chunk.key(chunkX, chunkY));
+    }
+    
+    private Chunk getOrCreateChunk(int chunkX, int chunkY) {
+        Chunk chunk = getChunk(chunkX, chunkY);
+        if (chunk == null) {
+            chunk = new Chunk(chunkX, chunkY);
+            chunk.generation = generation;
+            if (backend != null) {
+                makeResident(chunk);
+            } else {
+                chunks.put(chunk.key(), chunk);
+            }
+            chunk.lastAccess = ++accessClock;
+            lastChunk = chunk;
+        }
+        return chunk;
+    }
+    
+    private Chunk chunkAt(int x, int y) {
+        return getChunk(x >> Chunk.SHIFT, y >> Chunk.SHIFT);
+    }
+    
+    private static int indexOf(int x, int y) {
+        return Chunk.index(x & Chunk.MASK, y & Chunk.MASK);
+    }
+    
+    /**
+     * Adds a chunk filled in bulk, e.g. while loading a world into memory, replacing any chunk at the same position.
+     * Listeners are not notified.
+     */
+    void putChunk(Chunk chunk) {
+        chunk.generation = generation;
+        chunk.recount();
+        Chunk previous = chunk.isEmpty() ? chunks.remove(chunk.key()) : chunks.put(chunk.key(), chunk);
+        if (previous != null) {
+            tileCount -= previous.getTileCount();
+        }
+        tileCount += chunk.getTileCount();
+        lastChunk = null;
+        modificationCount++;
+        dirtyChunks.add(chunk.key());
+    }
+    
+    /**
+     * @return the chunks in memory, which for a paged world are only some of them
+     * @see #forEachChunk
+     */
+    public Collection<Chunk> getChunks() {
+        return Collections.unmodifiableCollection(chunks.values());
+    }
+    
+    /**
+     * @return the keys of all chunks, whether they are in memory or not
+     */
+    public Set<Long> getChunkKeys() {
+        if (backend == null) {
+            return new HashSet<>(chunks.keySet());
+        }
+        Set<Long> keys = backend.keys();
+        keys.addAll(chunks.keySet());
+        return keys;
+    }
+    
+    /**
+     * Looks up a chunk without paging it in, chunks that are not in memory are read from the backend into a
+     * temporary copy. May be called from several threads at once as long as the world is not modified meanwhile.
+     */
+    public Chunk readChunk(long key) {
+        Chunk chunk = chunks.get(key);
+        if (chunk == null && backend != null) {
+            chunk = backend.load(Chunk.keyX(key), Chunk.keyY(key));
+        }
+        return chunk;
+    }
+    
+    /**
+     * Visits every chunk, chunks of a paged world that are not in memory are read without paging them in
+     */
+    public void forEachChunk(Consumer<Chunk> consumer) {
+        if (backend == null) {
+            chunks.values().forEach(consumer);
+            return;
+        }
+        for (long key : getChunkKeys()) {
+            Chunk chunk = readChunk(key);
+            if (chunk != null) {
+                consumer.accept(chunk);
+            }
+        }
+    }
+    
+    public int getBlock(int x, int y) {
+        Chunk chunk = chunkAt(x, y);
+        return chunk == null ? -1 : chunk.getBlock(indexOf(x, y));
+    }
+    
+    public int getLiquid(int x, int y) {
+        Chunk chunk = chunkAt(x, y);
+        return chunk == null ? -1 : chunk.getLiquid(indexOf(x, y));
+    }
+    
+    public int getInteractable(int x, int y) {
+        Chunk chunk = chunkAt(x, y);
+        return chunk == null ? -1 : chunk.getInteractable(indexOf(x, y));
+    }
+    
+    public boolean hasTile(int x, int y) {
+        Chunk chunk = chunkAt(x, y);
+        return chunk != null && chunk.isOccupied(indexOf(x, y));
+    }
+    
+    /**
+     * @return the tile at the given position, or {@link Tile#EMPTY} if there is none
+     */
+    public Tile getTile(int x, int y) {
+        Chunk chunk = chunkAt(x, y);
+        if (chunk == null) {
+            return Tile.EMPTY;
+        }
+        int index = indexOf(x, y);
+        return chunk.isOccupied(index) ? new Tile(chunk.getBlock(index), chunk.getLiquid(index), chunk.getInteractable(index)) : Tile.EMPTY;
+    }
+    
+    /**
+     * @return whether the cell changed
+     */
+    public boolean setTile(int x, int y, int block, int liquid, int interactable) {
+        Chunk chunk = chunkAt(x, y);
+        if (chunk == null) {
+            if (block < 0 && liquid < 0 && interactable < 0) {
+                return false;
+            }
+            chunk = getOrCreateChunk(x >> Chunk.SHIFT, y >> Chunk.SHIFT);
+        }
+        return setCell(writable(chunk), x, y, indexOf(x, y), block, liquid, interactable);
+    }
+    
+    /**
+     * Writes a cell of a {@link #writable} chunk in memory, keeping the counters up to date and notifying the listeners
+     *
+     * @return whether the cell changed
+     */
+    private boolean setCell(Chunk chunk, int x, int y, int index, int block, int liquid, int interactable) {
+        int countBefore = chunk.getTileCount();
+        long before = Tile.pack(chunk.getBlock(index), chunk.getLiquid(index), chunk.getInteractable(index));
+        if (!chunk.set(index, block, liquid, interactable)) {
+            return false;
+        }
+        tileCount += chunk.getTileCount() - countBefore;
+        modificationCount++;
+        dirtyChunks.add(chunk.key());
+        if (!listeners.isEmpty()) {
+            long after = Tile.pack(chunk.getBlock(index), chunk.getLiquid(index), chunk.getInteractable(index));
+            for (ChangeListener listener : listeners) {
+                listener.tileChanged(x, y, before, after);
+            }
+        }
+        if (chunk.isEmpty()) {
+            chunks.remove(chunk.key());
+            lastChunk = null;
+            if (backend != null) {
+                backend.remove(chunk.x, chunk.y);
+            }
+        }
+        return true;
+    }
+    
+    public boolean setPackedTile(int x, int y, long packed) {
+        return setTile(x, y, Tile.unpackBlock(packed), Tile.unpackLiquid(packed), Tile.unpackInteractable(packed));
+    }
+    
+    public boolean setTile(int x, int y, Tile tile) {
+        return setTile(x, y, tile.block, tile.liquid, tile.interactable);
+    }
+    
+    public boolean removeTile(int x, int y) {
+        return setTile(x, y, -1, -1, -1);
+    }
+    
+    public void addChangeListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeChangeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+    
+    public void clear() {
+        if (backend != null) {
+            for (long key : backend.keys()) {
+                backend.remove(Chunk.keyX(key), Chunk.keyY(key));
+                dirtyChunks.add(key);
+            }
+        }
+        dirtyChunks.addAll(chunks.keySet());
+        chunks.clear();
+        lastChunk = null;
+        tileCount = 0;
+        modificationCount++;
+    }
+    
+    /**
+     * Copies every tile of another world into this one, shifted by the given offset. Tiles that would end up at
+     * negative coordinates are dropped.
+     * The tiles are copied chunk by chunk, a source chunk covers up to four chunks of this world if the offset is
+     * not a multiple of the chunk size. Listeners are notified of every changed cell, so a merge inside one undo step
+     * is undone at once.
+     */
+    public void merge(WorldStore other, int offsetX, int offsetY) {
+        other.forEachChunk(chunk -> {
+            int originX = chunk.originX() + offsetX;
+            int originY = chunk.originY() + offsetY;
+            for (int targetY = originY >> Chunk.SHIFT; targetY <= (originY + Chunk.MASK) >> Chunk.SHIFT; targetY++) {
+                for (int targetX = originX >> Chunk.SHIFT; targetX <= (originX + Chunk.MASK) >> Chunk.SHIFT; targetX++) {
+                    blit(chunk, originX, originY, targetX, targetY);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Copies the occupied cells of a source chunk placed at the given world position that fall into one chunk of
+     * this world
+     */
+    private void blit(Chunk source, int originX, int originY, int targetX, int targetY) {
+        int fromX = Math.max(0, Math.max(originX, targetX << Chunk.SHIFT));
+        int fromY = Math.max(0, Math.max(originY, targetY << Chunk.SHIFT));
+        int toX = Math.min(originX + Chunk.SIZE, (targetX + 1) << Chunk.SHIFT);
+        int toY = Math.min(originY + Chunk.SIZE, (targetY + 1) << Chunk.SHIFT);
+        Chunk target = null;
+        for (int y = fromY; y < toY; y++) {
+            int sourceRow = (y - originY) << Chunk.SHIFT;
+            int targetRow = (y & Chunk.MASK) << Chunk.SHIFT;
+            for (int x = fromX; x < toX; x++) {
+                int index = sourceRow | (x - originX);
+                if (!source.isOccupied(index)) {
+                    continue;
+                }
+                if (target == null) {
+                    target = writable(getOrCreateChunk(targetX, targetY));
+                }
+                setCell(target, x, y, targetRow | (x & Chunk.MASK), source.blocks[index], source.liquids[index], source.interactables[index]);
+            }
+        }
+    }
+    
+    /**
+     * Visits every occupied cell, chunk by chunk
+     */
+    public void forEachTile(TileConsumer consumer) {
+        forEachChunk(chunk -> {
+            int originX = chunk.originX();
+            int originY = chunk.originY();
+            for (int index = 0; index < Chunk.AREA; index++) {
+                if (chunk.isOccupied(index)) {
+                    consumer.accept(originX + (index & Chunk.MASK), originY + (index >> Chunk.SHIFT), chunk.getBlock(index), chunk.getLiquid(index), chunk.getInteractable(index));
+                }
+            }
+        });
+    }
+    
+    /**
+     * @return a counter that increases with every change, to cheaply tell whether the world changed since some point
+     */
+    public long getModificationCount() {
+        return modificationCount;
+    }
+    
+    /**
+     * @return whether any chunk changed since the world was last loaded or saved
+     */
+    public boolean isDirty() {
+        return !dirtyChunks.isEmpty();
+    }
+    
+    /**
+     * @return the keys of the chunks that changed since the world was last loaded or saved, including the keys of
+     * chunks that have been removed since
+     */
+    public Set<Long> getDirtyChunks() {
+        return Collections.unmodifiableSet(dirtyChunks);
+    }
+    
+    /**
+     * Marks every chunk as saved
+     *
+     * @return the keys of the chunks that were dirty until now
+     */
+    public Set<Long> takeDirtyChunks() {
+        Set<Long> dirty = dirtyChunks;
+        dirtyChunks = new HashSet<>();
+        return dirty;
+    }
+    
+    /**
+     * Marks chunks as unsaved again, e.g. because saving them failed
+     */
+    public void markDirty(Collection<Long> keys) {
+        dirtyChunks.addAll(keys);
+    }
+    
+    public long getTileCount() {
+        return tileCount;
+    }
+    
+    public boolean isEmpty() {
+        return tileCount == 0;
+    }
+    
+    /**
+     * @return whether chunks are paged in from a backend
+     */
+    public boolean isPaged() {
+        return backend != null;
+    }
+    
+    /**
+     * @return the backend of a paged world, {@code null} if the whole world is in memory
+     */
+    public ChunkBackend getBackend() {
+        return backend;
+    }
+    
+    public int getResidentLimit() {
+        return residentLimit;
+    }
+    
+    public int getResidentChunkCount() {
+        return chunks.size();
+    }
+    
+    /**
+     * @return the approximate heap size of the chunks in memory
+     */
+    public long getMemoryUsage() {
+        return getResidentChunkCount() * Chunk.MEMORY_USAGE;
+    }
+    
+    /**
+     * Hints that the chunks in the given range are about to be looked up, e.g. because the camera approaches them
+     */
+    public void prefetch(int minChunkX, int minChunkY, int maxChunkX, int maxChunkY) {
+        if (backend != null) {
+            backend.prefetch(minChunkX, minChunkY, maxChunkX, maxChunkY);
+        }
+    }
+    
+    /**
+     * Writes every changed chunk in memory back to the backend and marks the world as saved. The backend still has
+     * to be {@link ChunkBackend#flush() flushed} for the changes to be durable. Does nothing if the world is not
+     * paged.
+     *
+     * @return the keys of the chunks that were dirty until now
+     */
+    public Set<Long> writeBack() {
+        if (backend == null) {
+            return Set.of();
+        }
+        for (Chunk chunk : chunks.values()) {
+            if (chunk.isModified()) {
+                backend.store(chunk);
+                chunk.markStored();
+            }
+        }
+        return takeDirtyChunks();
+    }
+    
+    /**
+     * Opens a second world on the same backend that starts without any chunk in memory, to read a paged world from
+     * another thread after it has been {@link #writeBack() written back}. Chunks that are written back meanwhile are
+     * seen either completely before or completely after the change.
+     */
+    public WorldStore openView() {
+        if (backend == null) {
+            throw new IllegalStateException("Only paged worlds can be viewed");
+        }
+        return new WorldStore(backend, residentLimit);
+    }
+    
+    /**
+     * @return the smallest rectangle containing every occupied cell, or {@code null} if the world is empty
+     */
+    public Rectangle getBounds() {
+        int[] bounds = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+        forEachChunk(chunk -> {
+            int minX = bounds[0], minY = bounds[1], maxX = bounds[2], maxY = bounds[3];
+            if (chunk.originX() > minX && chunk.originX() + Chunk.MASK < maxX && chunk.originY() > minY && chunk.originY() + Chunk.MASK < maxY) {
+                return;
+            }
+            for (int index = 0; index < Chunk.AREA; index++) {
+                if (chunk.isOccupied(index)) {
+                    int x = chunk.originX() + (index & Chunk.MASK);
+                    int y = chunk.originY() + (index >> Chunk.SHIFT);
+                    minX = Math.min(minX, x);
+                    minY = Math.min(minY, y);
+                    maxX = Math.max(maxX, x);
+                    maxY = Math.max(maxY, y);
+                }
+            }
+            bounds[0] = minX;
+            bounds[1] = minY;
+            bounds[2] = maxX;
+            bounds[3] = maxY;
+        });
+        return bounds[0] > bounds[2] ? null : new Rectangle(bounds[0], bounds[1], bounds[2] - bounds[0] + 1, bounds[3] - bounds[1] + 1);
+    }
+    
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof WorldStore store) || store.tileCount != tileCount) {
+            return false;
+        }
+        Set<Long> keys = getChunkKeys();
+        if (!keys.equals(store.getChunkKeys())) {
+            return false;
+        }
+        for (long key : keys) {
+            Chunk chunk = readChunk(key);
+            Chunk otherChunk = store.readChunk(key);
+            if (chunk == null || otherChunk == null
+                    || !Arrays.equals(chunk.blocks, otherChunk.blocks)
+                    || !Arrays.equals(chunk.liquids, otherChunk.liquids)
+                    || !Arrays.equals(chunk.interactables, otherChunk.interactables)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    @Override
+    public int hashCode() {
+        return Long.hashCode(tileCount);
+    }
+    
+    @FunctionalInterface
+    public interface TileConsumer {
+        void accept(int x, int y, int block, int liquid, int interactable);
+    }
+    
+    /**
+     * Notified after a cell changed, with both states {@link Tile#pack(int, int, int) packed}
+     */
+    @FunctionalInterface
+    public interface ChangeListener {
+        void tileChanged(int x, int y, long before, long after);
+    }
+    
+}
@@ -0,0 +1,34 @@
+package lethalhabit.worldbuilder;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Reshaping whole worlds chunk by chunk
+ */
+class AutoShaperTest {
+    
+    /**
+     * The bounds of two tiles far apart hold about 10^16 chunk positions, only the two chunks may be looked at
+     */
+    @Test
+    @Timeout(10)
+    void sparseWorldIsShapedByItsChunks() {
+        WorldStore world = new WorldStore();
+        world.setTile(0, 0, 1, -1, -1);
+        world.setTile(1_600_000_000, 1_600_000_000, 1, -1, -1);
+        WorldStore expected = new WorldStore();
+        AutoShaper.shapeTile(world, 0, 0);
+        expected.setTile(0, 0, world.getBlock(0, 0), -1, -1);
+        AutoShaper.shapeTile(world, 1_600_000_000, 1_600_000_000);
+        expected.setTile(1_600_000_000, 1_600_000_000, world.getBlock(1_600_000_000, 1_600_000_000), -1, -1);
+        
+        world.setTile(0, 0, 1, -1, -1);
+        world.setTile(1_600_000_000, 1_600_000_000, 1, -1, -1);
+        AutoShaper.shapeWorld(world);
+        assertEquals(expected, world);
+    }
+    
+}
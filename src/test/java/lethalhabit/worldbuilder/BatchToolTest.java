@@ -0,0 +1,96 @@
+package lethalhabit.worldbuilder;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static lethalhabit.worldbuilder.RegionFileBackendTest.CHUNKS;
+import static lethalhabit.worldbuilder.RegionFileBackendTest.digests;
+import static lethalhabit.worldbuilder.RegionFileBackendTest.world;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Batch commands writing region worlds somewhere else, with a resident limit small enough that the worlds are paged
+ * out while they are processed
+ */
+class BatchToolTest {
+    
+    @TempDir
+    Path input;
+    
+    @TempDir
+    Path output;
+    
+    @BeforeEach
+    void limitResidentChunks() {
+        System.setProperty("worldbuilder.residentChunks", "0");
+    }
+    
+    @AfterEach
+    void resetResidentChunks() {
+        System.clearProperty("worldbuilder.residentChunks");
+    }
+    
+    @Test
+    void mergeLeavesRegionInputUntouched() throws IOException {
+        Path target = input.resolve("target" + WorldFormat.REGION.extension);
+        WorldFormat.REGION.write(world(CHUNKS, 1), target);
+        Path source = input.resolve("source" + WorldFormat.BINARY.extension);
+        WorldFormat.BINARY.write(world(CHUNKS, 3), source);
+        Map<Path, String> before = digests(input);
+        
+        Path merged = output.resolve("merged" + WorldFormat.BINARY.extension);
+        assertEquals(0, BatchTool.run(new String[] {"merge", target.toString(), source.toString(), "0", "0", "--out", merged.toString()}));
+        
+        assertEquals(before, digests(input));
+        assertEquals(world(CHUNKS, 3), WorldFormat.BINARY.read(merged));
+    }
+    
+    @Test
+    void autoShapeLeavesRegionInputUntouched() throws IOException {
+        WorldStore world = world(CHUNKS, 1);
+        Path file = input.resolve("world" + WorldFormat.REGION.extension);
+        WorldFormat.REGION.write(world, file);
+        Map<Path, String> before = digests(input);
+        
+        assertEquals(0, BatchTool.run(new String[] {"autoshape", file.toString(), "--out", output.toString()}));
+        
+        assertEquals(before, digests(input));
+        AutoShaper.shapeWorld(world);
+        WorldStore shaped = WorldFormat.REGION.read(output.resolve(file.getFileName()));
+        try {
+            assertEquals(world, shaped);
+        } finally {
+            shaped.getBackend().close();
+        }
+        try (Stream<Path> files = Files.list(output)) {
+            assertEquals(0, files.filter(path -> path.getFileName().toString().endsWith(".tmp")).count());
+        }
+    }
+    
+    @Test
+    void minimapsOfSameNamedWorldsAreRejected() throws IOException {
+        WorldFormat.JSON.write(world(1, 1), input.resolve("world" + WorldFormat.JSON.extension));
+        WorldFormat.BINARY.write(world(1, 1), input.resolve("world" + WorldFormat.BINARY.extension));
+        
+        assertEquals(1, BatchTool.run(new String[] {"minimap", input.toString(), "--out", output.toString()}));
+        try (Stream<Path> files = Files.list(output)) {
+            assertEquals(0, files.count());
+        }
+        
+        Files.delete(input.resolve("world" + WorldFormat.JSON.extension));
+        assertEquals(0, BatchTool.run(new String[] {"minimap", input.toString(), "--out", output.toString()}));
+        try (Stream<Path> files = Files.list(output)) {
+            assertEquals(List.of(output.resolve("world.png")), files.toList());
+        }
+    }
+    
+}
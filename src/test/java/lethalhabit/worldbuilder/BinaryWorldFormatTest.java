@@ -0,0 +1,152 @@
+package lethalhabit.worldbuilder;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips of {@link BinaryWorldFormat#update}: every update is followed by reading the file again and comparing
+ * it with the world in memory
+ */
+class BinaryWorldFormatTest {
+    
+    @TempDir
+    Path directory;
+    
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void changedChunkIsWrittenIntoFreedRecord(boolean compressed) throws IOException {
+        WorldStore world = world(8);
+        Path file = write(world, compressed);
+        
+        world.setTile(3, 3, 7, -1, -1);
+        assertTrue(update(world, file));
+        assertEquals(world, read(file));
+        long size = Files.size(file);
+        
+        // the record the chunk was moved out of is free now and large enough for the next change
+        world.setTile(4, 4, 8, -1, -1);
+        assertTrue(update(world, file));
+        assertEquals(world, read(file));
+        assertEquals(size, Files.size(file));
+    }
+    
+    @Test
+    void grownChunkIsAppended() throws IOException {
+        WorldStore world = world(8);
+        Path file = write(world, true);
+        long size = Files.size(file);
+        
+        // random tiles compress far worse than the uniform ones the record was sized for
+        Random random = new Random(1);
+        for (int i = 0; i < Chunk.AREA; i++) {
+            world.setTile(i & Chunk.MASK, i >> Chunk.SHIFT, random.nextInt(100), random.nextInt(10), -1);
+        }
+        assertTrue(update(world, file));
+        assertEquals(world, read(file));
+        assertTrue(Files.size(file) > size);
+    }
+    
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void newChunkIsAppended(boolean compressed) throws IOException {
+        WorldStore world = world(8);
+        Path file = write(world, compressed);
+        long size = Files.size(file);
+        
+        world.setTile(20 * Chunk.SIZE, 20 * Chunk.SIZE, 5, -1, -1);
+        assertTrue(update(world, file));
+        assertEquals(world, read(file));
+        assertTrue(Files.size(file) > size);
+    }
+    
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void removedChunkIsDropped(boolean compressed) throws IOException {
+        WorldStore world = world(8);
+        Path file = write(world, compressed);
+        
+        for (int i = 0; i < Chunk.AREA; i++) {
+            world.setTile(Chunk.SIZE + (i & Chunk.MASK), i >> Chunk.SHIFT, -1, -1, -1);
+        }
+        assertNull(world.getChunk(1, 0));
+        assertTrue(update(world, file));
+        WorldStore read = read(file);
+        assertEquals(world, read);
+        assertNull(read.getChunk(1, 0));
+    }
+    
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void mostlyUnusedFileIsLeftForRewrite(boolean compressed) throws IOException {
+        WorldStore world = world(8);
+        Path file = write(world, compressed);
+        WorldStore saved = new WorldStore(world);
+        
+        // removing more than half of the chunks would leave more than half of the file unused
+        for (int chunkX = 0; chunkX < 5; chunkX++) {
+            for (int i = 0; i < Chunk.AREA; i++) {
+                world.setTile(chunkX * Chunk.SIZE + (i & Chunk.MASK), i >> Chunk.SHIFT, -1, -1, -1);
+            }
+        }
+        assertFalse(update(world, file));
+        assertEquals(saved, read(file));
+        
+        // which is what the saver falls back to
+        write(world, file, compressed);
+        assertEquals(world, read(file));
+    }
+    
+    /**
+     * @return a world of one row of chunks, every cell filled with the same block
+     */
+    private static WorldStore world(int chunks) {
+        WorldStore world = new WorldStore();
+        for (int x = 0; x < chunks * Chunk.SIZE; x++) {
+            for (int y = 0; y < Chunk.SIZE; y++) {
+                world.setTile(x, y, 1, 2, -1);
+            }
+        }
+        return world;
+    }
+    
+    private Path write(WorldStore world, boolean compressed) throws IOException {
+        return write(world, directory.resolve("world" + WorldFormat.BINARY.extension), compressed);
+    }
+    
+    private static Path write(WorldStore world, Path file, boolean compressed) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            BinaryWorldFormat.write(world, channel, compressed);
+        }
+        world.takeDirtyChunks();
+        return file;
+    }
+    
+    private static boolean update(WorldStore world, Path file) throws IOException {
+        Set<Long> chunks = world.takeDirtyChunks();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return BinaryWorldFormat.update(channel, world, chunks);
+        }
+    }
+    
+    private static WorldStore read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return BinaryWorldFormat.read(channel);
+        }
+    }
+    
+}
@@ -0,0 +1,144 @@
+package lethalhabit.worldbuilder;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips through region files, directly and through paged worlds that page chunks out to them
+ */
+class RegionFileBackendTest {
+    
+    /**
+     * More chunks than the smallest resident limit, so that a paged world has to evict some of them
+     */
+    static final int CHUNKS = 48;
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void storedChunksAreReadBackAfterReopening() throws IOException {
+        Path file = directory.resolve("world" + RegionFileBackend.EXTENSION);
+        WorldStore world = world(CHUNKS, 1);
+        try (RegionFileBackend backend = RegionFileBackend.create(file)) {
+            world.forEachChunk(backend::store);
+            backend.remove(0, 0);
+            backend.remove(-5, -5);
+        }
+        for (int i = 0; i < Chunk.AREA; i++) {
+            world.removeTile(i & Chunk.MASK, i >> Chunk.SHIFT);
+        }
+        try (RegionFileBackend backend = RegionFileBackend.open(file)) {
+            assertEquals(world.getTileCount(), backend.getTileCount());
+            assertEquals(world.getChunkKeys(), backend.keys());
+            assertNull(backend.load(0, 0));
+            assertEquals(world, new WorldStore(backend, 0));
+        }
+    }
+    
+    @Test
+    void evictedChunksAreWrittenBack() throws IOException {
+        Path file = write(world(CHUNKS, 1));
+        try (RegionFileBackend backend = RegionFileBackend.open(file)) {
+            WorldStore world = new WorldStore(backend, 0);
+            fill(world, CHUNKS, 2);
+            
+            // every chunk was filled completely, so exactly the ones that are no longer in memory have been stored
+            int stored = 0;
+            for (long key : backend.keys()) {
+                if (backend.load(Chunk.keyX(key), Chunk.keyY(key)).getBlock(Chunk.AREA - 1) == 2) {
+                    stored++;
+                }
+            }
+            assertTrue(stored > 0);
+            assertEquals(CHUNKS * CHUNKS - world.getResidentChunkCount(), stored);
+            assertEquals(world(CHUNKS, 2), world);
+            
+            world.writeBack();
+        }
+        try (RegionFileBackend backend = RegionFileBackend.open(file)) {
+            assertEquals(world(CHUNKS, 2), new WorldStore(backend, 0));
+        }
+    }
+    
+    @Test
+    void copyOnWriteLeavesTheFilesUntouched() throws IOException {
+        Path file = write(world(CHUNKS, 1));
+        Map<Path, String> before = digests(directory);
+        try (CopyOnWriteBackend backend = CopyOnWriteBackend.open(file)) {
+            WorldStore world = new WorldStore(backend, 0);
+            fill(world, CHUNKS, 2);
+            for (int i = 0; i < Chunk.AREA; i++) {
+                world.removeTile(i & Chunk.MASK, i >> Chunk.SHIFT);
+            }
+            world.writeBack();
+            WorldStore expected = world(CHUNKS, 2);
+            for (int i = 0; i < Chunk.AREA; i++) {
+                expected.removeTile(i & Chunk.MASK, i >> Chunk.SHIFT);
+            }
+            assertEquals(expected.getTileCount(), backend.getTileCount());
+            assertEquals(expected.getChunkKeys(), backend.keys());
+            assertEquals(expected, world);
+        }
+        assertEquals(before, digests(directory));
+        try (RegionFileBackend backend = RegionFileBackend.open(file)) {
+            assertEquals(world(CHUNKS, 1), new WorldStore(backend, 0));
+        }
+    }
+    
+    /**
+     * @return a square world of the given number of chunks per side, every cell holding the same block
+     */
+    static WorldStore world(int chunks, int block) {
+        WorldStore world = new WorldStore();
+        fill(world, chunks, block);
+        return world;
+    }
+    
+    static void fill(WorldStore world, int chunks, int block) {
+        for (int y = 0; y < chunks * Chunk.SIZE; y++) {
+            for (int x = 0; x < chunks * Chunk.SIZE; x++) {
+                world.setTile(x, y, block, -1, -1);
+            }
+        }
+    }
+    
+    /**
+     * @return the SHA-256 of every file in the directory and its subdirectories
+     */
+    static Map<Path, String> digests(Path directory) throws IOException {
+        Map<Path, String> digests = new TreeMap<>();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                try {
+                    byte[] digest = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file));
+                    digests.put(directory.relativize(file), HexFormat.of().formatHex(digest));
+                } catch (NoSuchAlgorithmException ex) {
+                    throw new AssertionError(ex);
+                }
+            }
+        }
+        return digests;
+    }
+    
+    private Path write(WorldStore world) throws IOException {
+        Path file = directory.resolve("world" + RegionFileBackend.EXTENSION);
+        WorldFormat.REGION.write(world, file);
+        return file;
+    }
+    
+}
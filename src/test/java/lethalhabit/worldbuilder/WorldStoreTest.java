@@ -0,0 +1,69 @@
+package lethalhabit.worldbuilder;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Copy-on-write snapshots of worlds in memory
+ */
+class WorldStoreTest {
+    
+    @Test
+    void snapshotSharesChunksUntilTheyChange() {
+        WorldStore world = RegionFileBackendTest.world(4, 1);
+        WorldStore snapshot = world.snapshot();
+        assertSame(world.getChunk(0, 0), snapshot.getChunk(0, 0));
+        
+        world.setTile(0, 0, 2, -1, -1);
+        assertNotSame(world.getChunk(0, 0), snapshot.getChunk(0, 0));
+        assertSame(world.getChunk(1, 0), snapshot.getChunk(1, 0));
+        
+        // the copy belongs to the world now and is changed in place
+        Chunk copy = world.getChunk(0, 0);
+        world.setTile(1, 0, 2, -1, -1);
+        assertSame(copy, world.getChunk(0, 0));
+        assertEquals(2, world.getBlock(1, 0));
+        assertEquals(1, snapshot.getBlock(0, 0));
+        assertEquals(1, snapshot.getBlock(1, 0));
+    }
+    
+    @Test
+    void snapshotKeepsItsStateThroughEveryKindOfChange() {
+        WorldStore world = RegionFileBackendTest.world(4, 1);
+        WorldStore expected = new WorldStore(world);
+        WorldStore snapshot = world.snapshot();
+        
+        // a chunk emptied, a chunk created, another world merged on top
+        for (int i = 0; i < Chunk.AREA; i++) {
+            world.removeTile(Chunk.SIZE + (i & Chunk.MASK), i >> Chunk.SHIFT);
+        }
+        world.setTile(10 * Chunk.SIZE, 0, 3, -1, -1);
+        world.merge(RegionFileBackendTest.world(2, 4), 5, 5);
+        assertNotEquals(expected, world);
+        assertEquals(expected, snapshot);
+        assertEquals(expected.getTileCount(), snapshot.getTileCount());
+        
+        // the snapshot is a world of its own, changing it leaves the world alone
+        WorldStore changed = new WorldStore(world);
+        snapshot.setTile(2 * Chunk.SIZE, 0, 5, -1, -1);
+        assertEquals(changed, world);
+        assertEquals(5, snapshot.getBlock(2 * Chunk.SIZE, 0));
+    }
+    
+    @Test
+    void laterSnapshotsSeeLaterChanges() {
+        WorldStore world = RegionFileBackendTest.world(2, 1);
+        WorldStore first = world.snapshot();
+        world.setTile(0, 0, 2, -1, -1);
+        WorldStore second = world.snapshot();
+        world.setTile(0, 0, 3, -1, -1);
+        assertEquals(1, first.getBlock(0, 0));
+        assertEquals(2, second.getBlock(0, 0));
+        assertEquals(3, world.getBlock(0, 0));
+    }
+    
+}